@@ -0,0 +1,65 @@
+package rada.jfxmines;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Board generation and adjacency.
+ * Run with {@code -prof gc}, {@code gc.alloc.rate.norm} of {@link #allocate()}
+ * divided by the number of cells is the memory allocated per cell, {@link CellMemory} measures what is retained.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BoardBenchmark {
+
+    @Param({"9x9", "16x16", "30x16", "1000x1000", "3000x3000"})
+    public String size;
+
+    @Param({"0.12", "0.2"})
+    public double density;
+
+    private BoardParams params;
+    private Board started;
+    private long seed;
+
+    @Setup
+    public void setup() {
+        params = BoardParams.parse(size, density);
+        started = params.newBoard();
+        started.start(params.clickX(), params.clickY(), BoardParams.SEED);
+        seed = BoardParams.SEED;
+    }
+
+    @Benchmark
+    public Board allocate() {
+        return params.newBoard();
+    }
+
+    @Benchmark
+    public Board start() {
+        var board = params.newBoard();
+        board.start(params.clickX(), params.clickY(), seed++);
+        return board;
+    }
+
+    @Benchmark
+    public Board calculateAdjacent() {
+        started.calculateAdjacent();
+        return started;
+    }
+}
@@ -0,0 +1,42 @@
+package rada.jfxmines;
+
+/**
+ * Board size and mine density shared by the board benchmarks.
+ */
+class BoardParams {
+    static final long SEED = 0x5EED;
+
+    final int width;
+    final int height;
+    final int numMines;
+
+    private BoardParams(int width, int height, int numMines) {
+        this.width = width;
+        this.height = height;
+        this.numMines = numMines;
+    }
+
+    /**
+     * @param size board size in the form {@code WIDTHxHEIGHT}
+     * @param density fraction of cells that are mines
+     */
+    static BoardParams parse(String size, double density) {
+        var split = size.split("x");
+        int width = Integer.parseInt(split[0]);
+        int height = Integer.parseInt(split[1]);
+        int numMines = (int) Math.min(width * height * density, width * height - 9);
+        return new BoardParams(width, height, Math.max(numMines, 1));
+    }
+
+    Board newBoard() {
+        return new Board(width, height, numMines);
+    }
+
+    int clickX() {
+        return width / 2;
+    }
+
+    int clickY() {
+        return height / 2;
+    }
+}
@@ -0,0 +1,148 @@
+package rada.jfxmines;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+
+/**
+ * Frame time of a large opening in the grid minefield.
+ * Not a JMH benchmark, the JavaFX toolkit runs headless on Monocle and the pulses are timed.
+ * Text layout still needs the Pango library of the system:
+ * <pre>
+ * java -Dglass.platform=Monocle -Dmonocle.platform=Headless -Dprism.order=sw \
+ *      -cp benchmarks/target/benchmarks.jar rada.jfxmines.CascadeFrameTime [runs]
+ * </pre>
+ * Every run shows a fresh 40x40 board with 10 mines and clicks it, which opens well over 1,000 cells.
+ * The click handler is timed, and so is every pulse after it, from the first animation timer
+ * to the end of the layout pass, which includes applying CSS. Painting runs on the render thread
+ * and is not counted, add {@code -Djavafx.pulseLogger=true} to see it per pulse.
+ * <p>
+ * Only the public API of {@link Game} and {@link GridMinefield} is used, so older versions of the game
+ * can be measured by putting their classes in front of the jar on the class path.
+ */
+public class CascadeFrameTime {
+    private static final int SIZE = 40;
+    private static final int MINES = 10;
+    private static final int WARMUP_RUNS = 10;
+    // Long enough for all pulses caused by the click
+    private static final long SETTLE_MILLIS = 300;
+
+    private static Stage stage;
+    private static Game game;
+    // Start of the current pulse, set by the first animation timer
+    private static long pulseStart;
+    private static boolean measuring;
+    private static final List<Long> pulses = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        var started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+
+        var clicks = new long[runs];
+        var maxPulses = new long[runs];
+        var totals = new long[runs];
+        int cascade = 0;
+
+        // The toolkit threads keep the JVM alive, also when a run fails
+        try {
+            onFxThread(() -> {
+                stage = new Stage();
+                // Registered before any other timer, so it runs first in every pulse
+                new AnimationTimer() {
+                    @Override
+                    public void handle(long now) {
+                        pulseStart = System.nanoTime();
+                    }
+                }.start();
+                return null;
+            });
+
+            for (int run = -WARMUP_RUNS; run < runs; run++) {
+                onFxThread(CascadeFrameTime::newGame);
+                Thread.sleep(SETTLE_MILLIS);
+
+                long click = onFxThread(() -> {
+                    measuring = true;
+                    pulses.clear();
+                    long start = System.nanoTime();
+                    game.start(SIZE / 2, SIZE / 2);
+                    // Older versions only place the mines in start
+                    if (!game.getBoard().isRevealed(SIZE / 2, SIZE / 2)) {
+                        game.reveal(SIZE / 2, SIZE / 2);
+                    }
+                    return System.nanoTime() - start;
+                });
+                Thread.sleep(SETTLE_MILLIS);
+                long[] frames = onFxThread(() -> {
+                    measuring = false;
+                    return pulses.stream().mapToLong(Long::longValue).toArray();
+                });
+
+                if (run >= 0) {
+                    clicks[run] = click;
+                    maxPulses[run] = Arrays.stream(frames).max().orElse(0);
+                    totals[run] = click + Arrays.stream(frames).sum();
+                    cascade = onFxThread(CascadeFrameTime::countRevealed);
+                }
+            }
+        } finally {
+            Platform.exit();
+        }
+
+        System.out.printf("Cascade:              %d cells, %d runs%n", cascade, runs);
+        print("Click handler:", clicks);
+        print("Longest pulse:", maxPulses);
+        print("Click + pulses:", totals);
+    }
+
+    private static Void newGame() {
+        game = new Game(Difficulty.getCustom(SIZE, SIZE, MINES));
+        var field = new GridMinefield(game);
+        game.setView(field);
+        var scene = new Scene(field, 1000, 1000);
+        scene.addPostLayoutPulseListener(() -> {
+            if (measuring) {
+                pulses.add(System.nanoTime() - pulseStart);
+            }
+        });
+        stage.setScene(scene);
+        stage.show();
+        return null;
+    }
+
+    private static int countRevealed() {
+        var board = game.getBoard();
+        int revealed = 0;
+        for (int y = 0; y < board.getHeight(); y++) {
+            for (int x = 0; x < board.getWidth(); x++) {
+                if (board.isRevealed(x, y)) {
+                    revealed++;
+                }
+            }
+        }
+        return revealed;
+    }
+
+    private static void print(String title, long[] nanos) {
+        var sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-21s median %7.2f ms, p90 %7.2f ms, max %7.2f ms%n", title,
+                sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.9)] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static <T> T onFxThread(Callable<T> callable) throws Exception {
+        var task = new FutureTask<>(callable);
+        Platform.runLater(task);
+        return task.get();
+    }
+}
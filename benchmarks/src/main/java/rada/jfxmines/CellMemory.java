@@ -0,0 +1,103 @@
+package rada.jfxmines;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Heap retained per cell by the board, compared with the cell objects it used before.
+ * Not a JMH benchmark, {@code -prof gc} counts the bytes allocated, this counts the bytes still reachable:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar rada.jfxmines.CellMemory [width height boards]
+ * </pre>
+ * Several boards are built and kept, and the used heap after a full collection is compared with the heap before.
+ * The old layout is rebuilt here as it was, a {@code Cell[][]} of rows with one object per cell
+ * holding its adjacent mines, three booleans and its coordinates.
+ */
+public class CellMemory {
+    // Full collections in a row that free nothing before the heap is measured
+    private static final int COLLECTIONS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int boards = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        long cells = (long) width * height * boards;
+        int mines = width * height / 5;
+
+        System.out.printf("%d boards of %dx%d, %d cells%n", boards, width, height, cells);
+        // The new board first, so that the classes and the heap of the old layout are not measured with it
+        report("byte[] board", cells, retained(boards, () -> {
+            var board = new Board(width, height, mines);
+            board.start(width / 2, height / 2, 1);
+            return board;
+        }));
+        report("Cell objects", cells, retained(boards, () -> new CellArray(width, height)));
+    }
+
+    private static void report(String name, long cells, long bytes) {
+        System.out.printf("%-14s %,14d bytes retained, %6.2f bytes per cell%n", name, bytes, (double) bytes / cells);
+    }
+
+    /**
+     * Returns the heap retained by the given number of objects.
+     */
+    private static long retained(int count, Supplier<Object> factory) throws InterruptedException {
+        // Warms up the factory, its classes and constants are not counted
+        factory.get();
+        long before = usedHeap();
+        var kept = new Object[count];
+        for (int i = 0; i < count; i++) {
+            kept[i] = factory.get();
+        }
+        long after = usedHeap();
+        // Keeps the objects reachable until the heap was measured
+        if (kept[count - 1] == null) {
+            throw new IllegalStateException();
+        }
+        return after - before;
+    }
+
+    /**
+     * Returns the used heap once full collections stop freeing memory,
+     * the first collections after startup leave garbage behind.
+     */
+    private static long usedHeap() throws InterruptedException {
+        var memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int unchanged = 0; unchanged < COLLECTIONS; ) {
+            System.gc();
+            Thread.sleep(50);
+            long now = memory.getHeapMemoryUsage().getUsed();
+            unchanged = now < used ? 0 : unchanged + 1;
+            used = Math.min(used, now);
+        }
+        return used;
+    }
+
+    /**
+     * Cells of the board before they were packed into bytes.
+     */
+    private static class CellArray {
+        private final Cell[][] cells;
+
+        CellArray(int width, int height) {
+            cells = new Cell[height][width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    cells[y][x] = new Cell();
+                    cells[y][x].x = x;
+                    cells[y][x].y = y;
+                }
+            }
+        }
+    }
+
+    private static class Cell {
+        int adjacent;
+        boolean flag;
+        boolean isMine;
+        boolean revealed;
+        int x;
+        int y;
+    }
+}
@@ -0,0 +1,98 @@
+package rada.jfxmines;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Middle click on a numbered cell whose mines are all flagged.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChordBenchmark {
+
+    @Param({"30x16", "1000x1000"})
+    public String size;
+
+    @Param({"0.12", "0.2"})
+    public double density;
+
+    private BoardParams params;
+    private Board board;
+    private int chordX;
+    private int chordY;
+    private long seed = BoardParams.SEED;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        params = BoardParams.parse(size, density);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        // Some boards have no cell to chord after the opening, try another seed
+        do {
+            board = params.newBoard();
+            board.start(params.clickX(), params.clickY(), seed++);
+            board.reveal(params.clickX(), params.clickY());
+        } while (!findChordTarget());
+    }
+
+    /**
+     * Finds a revealed number with an unrevealed safe neighbor and flags its mines.
+     */
+    private boolean findChordTarget() {
+        for (int y = 0; y < board.getHeight(); y++) {
+            for (int x = 0; x < board.getWidth(); x++) {
+                if (board.isRevealed(x, y) && board.getAdjacent(x, y) > 0 && hasHiddenSafeNeighbor(x, y)) {
+                    var neighbors = board.neighbors(x, y);
+                    for (int n = 0; n < neighbors.size(); n++) {
+                        int i = neighbors.get(n);
+                        int nx = i % board.getWidth();
+                        int ny = i / board.getWidth();
+                        if (board.isMine(nx, ny)) {
+                            board.toggleFlag(nx, ny);
+                        }
+                    }
+                    chordX = x;
+                    chordY = y;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean hasHiddenSafeNeighbor(int x, int y) {
+        var neighbors = board.neighbors(x, y);
+        for (int n = 0; n < neighbors.size(); n++) {
+            int i = neighbors.get(n);
+            int nx = i % board.getWidth();
+            int ny = i / board.getWidth();
+            if (!board.isRevealed(nx, ny) && !board.isMine(nx, ny)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public int chord() {
+        return board.chord(chordX, chordY).size();
+    }
+}
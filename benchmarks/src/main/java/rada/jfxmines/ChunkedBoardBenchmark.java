@@ -0,0 +1,67 @@
+package rada.jfxmines;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Endless board: the starting opening, and a walk along a corridor that crosses chunk boundaries.
+ * The walk flags every mine next to the corridor, reveals its cells and chords them,
+ * so reveals and chords reach into neighboring chunks and chunks left behind are evicted.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkedBoardBenchmark {
+
+    @Param({"0.12", "0.2"})
+    public double density;
+
+    // Length of the corridor in cells, 16 chunks
+    @Param({"1024"})
+    public int length;
+
+    private long seed = BoardParams.SEED;
+
+    @Benchmark
+    public int opening() {
+        return new ChunkedBoard(seed++, density).reveal(0, 0).size();
+    }
+
+    /**
+     * Walks the corridor y = -1..1 from x = 0, the chunk border between y = -1 and y = 0 is crossed by every chord.
+     * @return number of chunks kept in memory at the end
+     */
+    @Benchmark
+    public int walk() {
+        var board = new ChunkedBoard(seed++, density);
+        board.reveal(0, 0);
+        for (int x = 0; x < length; x++) {
+            for (int y = -1; y <= 1; y++) {
+                if (board.isMine(x + 1, y) && !board.isFlagged(x + 1, y)) {
+                    board.toggleFlag(x + 1, y);
+                }
+            }
+            if (!board.isMine(x, 0)) {
+                board.reveal(x, 0);
+                board.chord(x, 0);
+            }
+        }
+        if (board.getState() != ChunkedBoard.State.IN_PROGRESS) {
+            throw new IllegalStateException("Walk hit a mine");
+        }
+        return board.getLoadedChunks();
+    }
+}
@@ -0,0 +1,163 @@
+package rada.jfxmines;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading and saving the highscore file, and recording a single new score.
+ * {@code csv} rewrites the whole file for every score, {@code log} appends to it,
+ * {@code mapped} is the binary store that reads the best entries without loading the rest,
+ * {@code db} is the embedded database.
+ * <p>
+ * {@code add} runs on a fresh copy of the store every time, so the store does not grow
+ * from one call to the next. Each call is timed on its own. The copy is opened and read before,
+ * like the game does at startup, so stores that load lazily do not count loading as part of the add.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HighscoreStorageBenchmark {
+
+    @Param({"10", "10000", "1000000"})
+    public int entries;
+
+    @Param({"csv", "log", "mapped", "db"})
+    public String format;
+
+    private File file;
+    private IHighscoreStorage storage;
+    private Map<Difficulty, List<HighscoreEntry>> highscores;
+    private HighscoreEntry entry;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("jfxmines-bench", ".hs");
+        highscores = Highscores.generate(entries);
+        storage = newStorage(file);
+        storage.save(highscores);
+        // Closed once so that everything is on disk before add copies the files
+        storage.close();
+        storage = newStorage(file);
+        entry = new HighscoreEntry("new player", 1);
+    }
+
+    private IHighscoreStorage newStorage(File file) {
+        switch (format) {
+            case "log":
+                // Everything retained, no entry is dropped and no compaction runs while add is timed
+                return new HighscoreLogStorage(file.getPath(), null, Integer.MAX_VALUE);
+            case "mapped":
+                return new HighscoreMappedStorage(file.getPath());
+            case "db":
+                return new HighscoreDatabaseStorage(file.getPath(), null);
+            default:
+                return new HighscoreFileStorage(file.getPath());
+        }
+    }
+
+    /**
+     * Files a store consists of, the database keeps its data next to the given path.
+     */
+    private static File[] storeFiles(File file) {
+        return new File[] {file, new File(file.getPath() + ".mv.db"), new File(file.getPath() + ".tmp")};
+    }
+
+    @TearDown
+    public void tearDown() {
+        storage.close();
+        for (var storeFile : storeFiles(file)) {
+            storeFile.delete();
+        }
+    }
+
+    /**
+     * Copy of the store made before every call of {@link HighscoreStorageBenchmark#add(Copy)}.
+     */
+    @State(Scope.Thread)
+    public static class Copy {
+        private File file;
+        private IHighscoreStorage storage;
+
+        @Setup(Level.Iteration)
+        public void restore(HighscoreStorageBenchmark benchmark) throws IOException {
+            file = new File(benchmark.file.getPath() + ".copy");
+            var sources = storeFiles(benchmark.file);
+            var targets = storeFiles(file);
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i].exists()) {
+                    Files.copy(sources[i].toPath(), targets[i].toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    // Otherwise the first fsync of add writes the whole copy
+                    try (var channel = FileChannel.open(targets[i].toPath(), StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                }
+            }
+            storage = benchmark.newStorage(file);
+            storage.count(Difficulty.getEasy());
+        }
+
+        @TearDown(Level.Iteration)
+        public void delete() {
+            storage.close();
+            for (var storeFile : storeFiles(file)) {
+                storeFile.delete();
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<Difficulty, List<HighscoreEntry>> load() {
+        return storage.load();
+    }
+
+    @Benchmark
+    public boolean save() {
+        return storage.save(highscores);
+    }
+
+    /**
+     * Records one new score the way the game does.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 30, batchSize = 1)
+    public boolean add(Copy copy) {
+        return copy.storage.add(Difficulty.getEasy(), entry);
+    }
+
+    /**
+     * Opens the store from scratch and reads the ten best entries of one difficulty.
+     */
+    @Benchmark
+    public List<HighscoreEntry> openTop10() {
+        var opened = newStorage(file);
+        var top = opened.top(Difficulty.getEasy(), 10);
+        opened.close();
+        return top;
+    }
+}
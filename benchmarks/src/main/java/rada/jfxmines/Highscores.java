@@ -0,0 +1,32 @@
+package rada.jfxmines;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Generates highscore tables for the storage benchmarks.
+ */
+class Highscores {
+    private static final Difficulty[] DIFFICULTIES = {
+            Difficulty.getEasy(), Difficulty.getMedium(), Difficulty.getHard()
+    };
+
+    /**
+     * @param entries total number of entries, spread evenly over the difficulties
+     */
+    static Map<Difficulty, List<HighscoreEntry>> generate(int entries) {
+        var random = new SplittableRandom(BoardParams.SEED);
+        var map = new HashMap<Difficulty, List<HighscoreEntry>>();
+        for (var difficulty : DIFFICULTIES) {
+            map.put(difficulty, new ArrayList<>());
+        }
+        for (int i = 0; i < entries; i++) {
+            var difficulty = DIFFICULTIES[i % DIFFICULTIES.length];
+            map.get(difficulty).add(new HighscoreEntry("player" + random.nextInt(1000), random.nextInt(1, 1_000_000)));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,71 @@
+package rada.jfxmines;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording a new score in a full highscore table.
+ * {@code sortedList} replaces the worst entry and sorts the list again, like the game used to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeaderboardBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    private Leaderboard leaderboard;
+    private List<HighscoreEntry> list;
+    private SplittableRandom random;
+
+    @Setup
+    public void setup() {
+        random = new SplittableRandom(BoardParams.SEED);
+        leaderboard = new Leaderboard(entries);
+        list = new ArrayList<>();
+        for (int i = 0; i < entries; i++) {
+            var entry = new HighscoreEntry("player", random.nextInt(1, 1_000_000));
+            leaderboard.add(entry);
+            list.add(entry);
+        }
+        list.sort(HighscoreEntry.TIME_COMPARATOR);
+    }
+
+    @Benchmark
+    public int add() {
+        return leaderboard.add(new HighscoreEntry("new player", random.nextInt(1, 1_000_000)));
+    }
+
+    @Benchmark
+    public int rank() {
+        return leaderboard.rank(random.nextInt(1, 1_000_000));
+    }
+
+    @Benchmark
+    public List<HighscoreEntry> sortedList() {
+        var entry = new HighscoreEntry("new player", random.nextInt(1, 1_000_000));
+        if (list.get(list.size() - 1).getTime() > entry.getTime()) {
+            list.set(list.size() - 1, entry);
+            list.sort(HighscoreEntry.TIME_COMPARATOR);
+        }
+        return list;
+    }
+}
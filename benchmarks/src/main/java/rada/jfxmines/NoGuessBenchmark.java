@@ -0,0 +1,49 @@
+package rada.jfxmines;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the first click with the no guessing option.
+ * Sample time mode reports the percentiles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class NoGuessBenchmark {
+
+    @Param({"30x16", "50x50", "100x100"})
+    public String size;
+
+    // 0.2 is close to the density of the hard difficulty
+    @Param({"0.16", "0.2"})
+    public double density;
+
+    private BoardParams params;
+    private Difficulty difficulty;
+
+    @Setup
+    public void setup() {
+        params = BoardParams.parse(size, density);
+        difficulty = Difficulty.getCustom(params.width, params.height, params.numMines);
+    }
+
+    @Benchmark
+    public long findSeed() {
+        return NoGuessGenerator.findSeed(difficulty, params.clickX(), params.clickY(), 10_000).orElse(-1);
+    }
+}
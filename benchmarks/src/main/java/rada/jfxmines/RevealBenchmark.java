@@ -0,0 +1,55 @@
+package rada.jfxmines;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * First click opening on a freshly generated board.
+ * Low densities produce the large openings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RevealBenchmark {
+
+    @Param({"30x16", "1000x1000", "3000x3000"})
+    public String size;
+
+    @Param({"0.05", "0.12", "0.2"})
+    public double density;
+
+    private BoardParams params;
+    private Board board;
+    private long seed = BoardParams.SEED;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        params = BoardParams.parse(size, density);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        board = params.newBoard();
+        board.start(params.clickX(), params.clickY(), seed++);
+    }
+
+    @Benchmark
+    public int reveal() {
+        return board.reveal(params.clickX(), params.clickY()).size();
+    }
+}
@@ -0,0 +1,19 @@
+package rada.jfxmines;
+
+/**
+ * Result of analyzing one board snapshot.
+ * @author rada
+ *
+ */
+public class Analysis {
+
+    // Snapshot the analysis was computed from
+    public final Board board;
+    // Mine probability of every cell, indexed by y * width + x
+    public final double[] probabilities;
+
+    public Analysis(Board board, double[] probabilities) {
+        this.board = board;
+        this.probabilities = probabilities;
+    }
+}
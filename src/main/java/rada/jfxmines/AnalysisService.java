@@ -0,0 +1,113 @@
+package rada.jfxmines;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+
+/**
+ * Analyzes board snapshots on a background thread, so that the JavaFX Application Thread
+ * only pays for copying the board no matter how long the analysis takes.
+ * <p>
+ * Only the latest snapshot matters. Submitting a new one cancels the computation
+ * of the previous one, and results that are outdated by the time they are done are dropped.
+ * Results are handed over to the JavaFX Application Thread with {@link Platform#runLater(Runnable)}.
+ * Results that arrive before the previous hand-over has run are delivered together
+ * in that one call, only the newest of them is passed on.
+ * <p>
+ * All methods except the constructor must be called on the JavaFX Application Thread.
+ * @author rada
+ *
+ */
+public class AnalysisService {
+    private final ExecutorService executor;
+    private final AtomicReference<Result> pending;
+    private Future<?> current;
+    // Incremented with every submitted snapshot, results of older ones are dropped
+    private volatile long generation;
+    // Only used by the worker thread, keeps the component cache between moves
+    private ProbabilityCalculator calculator;
+
+    public AnalysisService() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "analysis");
+            // Must not keep the application running
+            thread.setDaemon(true);
+            return thread;
+        });
+        pending = new AtomicReference<>();
+    }
+
+    /**
+     * Starts analyzing a snapshot, the analysis of the previous one is cancelled.
+     * @param snapshot board snapshot that is not modified anymore, see {@link Board#snapshot()}
+     * @param onResult called on the JavaFX Application Thread with the result,
+     * unless another snapshot is submitted or {@link #cancel()} is called first
+     */
+    public void submit(Board snapshot, Consumer<Analysis> onResult) {
+        cancel();
+        long submitted = generation;
+        current = executor.submit(() -> analyze(snapshot, submitted, onResult));
+    }
+
+    /**
+     * Cancels the current analysis, its result will not be delivered.
+     */
+    public void cancel() {
+        generation++;
+        if (current != null) {
+            current.cancel(true);
+            current = null;
+        }
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private void analyze(Board snapshot, long submitted, Consumer<Analysis> onResult) {
+        var next = calculator == null ? new ProbabilityCalculator(snapshot) : calculator.forBoard(snapshot);
+        double[] probabilities;
+        try {
+            probabilities = next.compute();
+        } catch (IllegalStateException e) {
+            // Either cancelled, which is a CancellationException, or too complex to analyze
+            // There is nothing to show in both cases
+            return;
+        }
+        calculator = next;
+        if (submitted != generation) {
+            return;
+        }
+        var result = new Result(new Analysis(snapshot, probabilities), submitted, onResult);
+        if (pending.getAndSet(result) == null) {
+            Platform.runLater(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        var result = pending.getAndSet(null);
+        if (result != null && result.generation == generation) {
+            result.onResult.accept(result.analysis);
+        }
+    }
+
+    private static class Result {
+        final Analysis analysis;
+        final long generation;
+        final Consumer<Analysis> onResult;
+
+        Result(Analysis analysis, long generation, Consumer<Analysis> onResult) {
+            this.analysis = analysis;
+            this.generation = generation;
+            this.onResult = onResult;
+        }
+    }
+}
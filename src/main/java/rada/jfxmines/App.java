@@ -1,20 +1,21 @@
 package rada.jfxmines;
 
+import java.util.SplittableRandom;
 
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.beans.value.ChangeListener;
+import javafx.event.EventHandler;
 import javafx.geometry.HPos;
 import javafx.geometry.Insets;
+import javafx.scene.Cursor;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
@@ -31,6 +32,7 @@ import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
@@ -42,18 +44,33 @@ public class App extends Application {
 
     private BorderPane rootPane;
     private MenuBar topMenu;
-    private GridPane minefield;
+    private Region minefield;
+    // Reused by all games small enough for it
+    private GridMinefield gridMinefield;
+    private final EventHandler<MouseEvent> blockMouseFilter = e -> e.consume();
     private Game game;
+    // Field of the endless game, null while a regular game is played
+    private EndlessMinefield endlessField;
     private Label flagsLbl;
     private Label timeLbl;
+    // Shown when no board without guessing was found in time
+    private Label guessLbl;
     private Difficulty difficulty;
     private Difficulty customDifficulty;
     private ChangeListener<? super Number> flagsListener;
-    private ChangeListener<? super Number> timeListener;
-    private Map<Difficulty, List<HighscoreEntry>> highscores;
+    private ChangeListener<? super Boolean> inProgressListener;
+    private ChangeListener<? super Boolean> startingListener;
+    // Shared by all games, runs only while a game is in progress
+    private AnimationTimer clockTimer;
+    private long shownSeconds = -1;
     private IHighscoreStorage highscoreStrorage;
     
     private String lastPlayerName = "player";
+    private boolean noGuess = false;
+    private boolean showHints = false;
+    private AnalysisService analysisService;
+    // Records every game, shared by all games
+    private ReplayRecorder replayRecorder;
     private RadioMenuItem easyRBtn;
     private RadioMenuItem mediumRBtn;
     private RadioMenuItem hardRBtn;
@@ -63,8 +80,13 @@ public class App extends Application {
     private Image icon;
     
     private static final int MAX_HIGHSCORES = 10;
+    // Bigger boards are drawn on a canvas instead of using a node per cell
+    private static final int MAX_GRID_CELLS = 40 * 40;
     private static final Font TOP_LABELS_FONT = Font.font("sans", FontWeight.BOLD, 14);
     private static final String HIGHSCORES_FILENAME = "mines_hs";
+    private static final String HIGHSCORES_LOG_FILENAME = "mines_hs.log";
+    private static final String HIGHSCORES_DB_FILENAME = "mines_hs_db";
+    private static final String REPLAYS_FILENAME = "mines_replays.bin";
     
     @Override
     public void start(Stage primaryStage) throws Exception {
@@ -75,20 +97,42 @@ public class App extends Application {
             icon = null;
         }
         this.primaryStage = primaryStage;
-        highscoreStrorage = new HighscoreFileStorage(HIGHSCORES_FILENAME);
-        highscores = highscoreStrorage.load();
-        
-        // Sort all highscore entries and limit them to MAX_HIGHSCORES
-        for (var mapEntry : highscores.entrySet()) {
-            var newVal = mapEntry.getValue()
-                                    .stream()
-                                    .limit(MAX_HIGHSCORES)
-                                    .collect(Collectors.toList());
-            mapEntry.setValue(newVal);
-        }
+        // The writer thread opens the database right away and keeps a copy of the scores,
+        // on the first start it imports the older log and CSV files first.
+        // Queries after a win never wait for the database, stop() waits for the new scores to be written
+        highscoreStrorage = new HighscoreWriteBehindStorage(new HighscoreDatabaseStorage(HIGHSCORES_DB_FILENAME,
+                new HighscoreLogStorage(HIGHSCORES_LOG_FILENAME, new HighscoreFileStorage(HIGHSCORES_FILENAME))));
+        analysisService = new AnalysisService();
+        replayRecorder = new ReplayRecorder(REPLAYS_FILENAME);
         
         flagsListener = (obs, oldVal, newVal) -> updateFlagsLabel(newVal);
-        timeListener = (obs, oldVal, newVal) -> updateTimeLabel(newVal);
+        clockTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                updateTimeLabel(game.getElapsedMillis());
+            }
+        };
+        inProgressListener = (obs, oldVal, inProgress) -> {
+            if (inProgress) {
+                clockTimer.start();
+            } else {
+                clockTimer.stop();
+                updateTimeLabel(game.getElapsedMillis());
+            }
+        };
+        
+        // No clicks while a no-guess board is searched for, the window stays responsive
+        startingListener = (obs, oldVal, starting) -> {
+            if (starting) {
+                minefield.addEventFilter(MouseEvent.ANY, blockMouseFilter);
+                minefield.setCursor(Cursor.WAIT);
+            } else {
+                minefield.removeEventFilter(MouseEvent.ANY, blockMouseFilter);
+                minefield.setCursor(null);
+                // The search gave up and a regular board is played
+                guessLbl.setVisible(!game.isNoGuessBoard());
+            }
+        };
         
         difficulty = Difficulty.getHard();
         customDifficulty = difficulty;
@@ -135,6 +179,13 @@ public class App extends Application {
         GridPane.setFillWidth(timeLbl, true);
         GridPane.setHgrow(timeLbl, Priority.ALWAYS);
         
+        guessLbl = new Label("No board without guessing was found in time, this one may need a guess.");
+        guessLbl.setTextFill(Color.RED);
+        guessLbl.setVisible(false);
+        // Takes no space while hidden
+        guessLbl.managedProperty().bind(guessLbl.visibleProperty());
+        labelsPane.add(guessLbl, 0, 1, 2, 1);
+        
         top.getChildren().add(labelsPane);
         
         return top;
@@ -150,7 +201,11 @@ public class App extends Application {
         var showHS = new MenuItem("Show _Highscores");
         showHS.setOnAction(e -> showHighscores());
         showHS.setAccelerator(new KeyCodeCombination(KeyCode.H, KeyCombination.CONTROL_DOWN));
+        var newEndless = new MenuItem("New _endless game");
+        newEndless.setOnAction(e -> onNewEndlessGameAction());
+        newEndless.setAccelerator(new KeyCodeCombination(KeyCode.E, KeyCombination.CONTROL_DOWN));
         gameMenu.getItems().add(newGame);
+        gameMenu.getItems().add(newEndless);
         gameMenu.getItems().add(showHS);
         
         var settingMenu = new Menu("_Settings");
@@ -176,7 +231,23 @@ public class App extends Application {
         
         difficultyMenu.getItems().addAll(easyRBtn, mediumRBtn, hardRBtn, customRBtn, new SeparatorMenuItem(), confCustom);
         
+        var noGuessItem = new CheckMenuItem("_No guessing");
+        noGuessItem.setSelected(noGuess);
+        // Takes effect from the next game
+        noGuessItem.setOnAction(e -> noGuess = noGuessItem.isSelected());
+        
+        var hintsItem = new CheckMenuItem("Show _hints");
+        hintsItem.setSelected(showHints);
+        hintsItem.setOnAction(e -> {
+            showHints = hintsItem.isSelected();
+            if (game != null) {
+                game.setAnalysisService(showHints ? analysisService : null);
+            }
+        });
+        
         settingMenu.getItems().add(difficultyMenu);
+        settingMenu.getItems().add(noGuessItem);
+        settingMenu.getItems().add(hintsItem);
         
         menu.getMenus().add(gameMenu);
         menu.getMenus().add(settingMenu);
@@ -185,26 +256,115 @@ public class App extends Application {
     }
     
     private void newGame() {
-        if (game != null) {
-            game.numFlagsProperty().removeListener(flagsListener);
-            game.timeProperty().removeListener(timeListener);
-            game.setOnGameOver(null);
-        }
+        detachGame();
+        endlessField = null;
         game = new Game(difficulty);
+        game.setNoGuess(noGuess);
+        game.setRecorder(replayRecorder);
         
         updateFlagsLabel(0);
+        guessLbl.setVisible(false);
+        clockTimer.stop();
+        shownSeconds = -1;
         updateTimeLabel(0);
         game.numFlagsProperty().addListener(flagsListener);
-        game.timeProperty().addListener(timeListener);
+        game.inProgressProperty().addListener(inProgressListener);
+        game.startingProperty().addListener(startingListener);
         game.setOnGameOver(this::gameOver);
+        if (minefield != null) {
+            minefield.removeEventFilter(MouseEvent.ANY, blockMouseFilter);
+            minefield.setCursor(null);
+        }
         minefield = getMinefield();
-        rootPane.setCenter(minefield);
+        if (rootPane.getCenter() != minefield) {
+            rootPane.setCenter(minefield);
+        }
+        if (showHints) {
+            game.setAnalysisService(analysisService);
+        }
         
         return;
     }
     
+    private void detachGame() {
+        if (game != null) {
+            game.numFlagsProperty().removeListener(flagsListener);
+            game.inProgressProperty().removeListener(inProgressListener);
+            game.startingProperty().removeListener(startingListener);
+            game.setOnGameOver(null);
+            game.setAnalysisService(null);
+            // The grid is reused, a search that ends later must not start the old game on it
+            game.cancelStart();
+        }
+    }
+    
+    /**
+     * Starts an endless game with the mine density of the selected difficulty.
+     */
+    private void newEndlessGame() {
+        detachGame();
+        game = null;
+        guessLbl.setVisible(false);
+        clockTimer.stop();
+        
+        double density = (double) difficulty.getNumMines() / (difficulty.getWidth() * difficulty.getHeight());
+        // Sparse custom boards would make openings endless
+        density = Math.max(density, ChunkedBoard.MIN_DENSITY);
+        endlessField = new EndlessMinefield(new ChunkedBoard(new SplittableRandom().nextLong(), density));
+        endlessField.setOnChange(this::endlessChanged);
+        if (minefield != null) {
+            minefield.removeEventFilter(MouseEvent.ANY, blockMouseFilter);
+            minefield.setCursor(null);
+        }
+        minefield = endlessField;
+        rootPane.setCenter(minefield);
+        endlessChanged();
+    }
+    
+    /**
+     * Shows the score of the endless game, which is the number of revealed cells.
+     */
+    private void endlessChanged() {
+        var board = endlessField.getBoard();
+        flagsLbl.setText("Flags: " + board.getNumFlags());
+        flagsLbl.setTextFill(Color.BLACK);
+        timeLbl.setText("Revealed: " + board.getRevealedCells());
+        
+        if (board.getState() == ChunkedBoard.State.LOST) {
+            minefield.addEventFilter(MouseEvent.ANY, blockMouseFilter);
+            var alert = new Alert(AlertType.INFORMATION);
+            alert.setTitle("Game over");
+            alert.setHeaderText("You lost.");
+            alert.setContentText("You revealed " + board.getRevealedCells() + " cells.");
+            alert.showAndWait();
+        }
+    }
+    
+    /**
+     * Returns {@code true} if a regular or an endless game is being played.
+     */
+    private boolean isGameInProgress() {
+        if (endlessField != null) {
+            return endlessField.getBoard().getState() == ChunkedBoard.State.IN_PROGRESS;
+        }
+        return game != null && game.isInProgress();
+    }
+    
+    private void onNewEndlessGameAction() {
+        if (isGameInProgress()) {
+            var alert = new Alert(AlertType.CONFIRMATION);
+            alert.setHeaderText("New endless game");
+            alert.setContentText("Do you wish to start a new endless game?\nCurrent progress will be lost.");
+            alert.showAndWait();
+            if (alert.getResult() != ButtonType.OK) {
+                return;
+            } 
+        }
+        newEndlessGame();
+    }
+    
     private void onNewGameAction() {
-        if (game != null && game.isInProgress()) {
+        if (isGameInProgress()) {
             var alert = new Alert(AlertType.CONFIRMATION);
             alert.setHeaderText("New game");
             alert.setContentText("Do you wish to start a new game?\nCurrent progress will be lost.");
@@ -217,11 +377,11 @@ public class App extends Application {
     }
 
     private void changeDifficulty(Difficulty difficulty) {
-        if (difficulty == this.difficulty) {
+        if (difficulty == this.difficulty && game != null) {
             // No need to change
             return;
         }
-        if (game != null && game.isInProgress()) {
+        if (isGameInProgress()) {
             var alert = new Alert(AlertType.CONFIRMATION);
             alert.setHeaderText("Changing difficulty");
             alert.setContentText("Do you wish to change difficutly?\nChanging difficulty will reset the game.");
@@ -245,27 +405,19 @@ public class App extends Application {
         newGame();
     }
     
-    private GridPane getMinefield() {
-        var field = new GridPane();
-        
-        var cells = game.getCellNodes();
-        int h = cells.length;
-        int w = cells[0].length;
-        
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                var cell = cells[y][x];
-                GridPane.setFillHeight(cell, true);
-                GridPane.setFillWidth(cell, true);
-                field.add(cell, x, y);
-                
-            }
+    private Region getMinefield() {
+        if (difficulty.getWidth() * difficulty.getHeight() > MAX_GRID_CELLS) {
+            var field = new CanvasMinefield(game);
+            game.setView(field);
+            return field;
         }
-        field.setPadding(new Insets(10));
-        
-        field.setPrefWidth(Double.MAX_VALUE);
-        
-        return field;
+        if (gridMinefield == null) {
+            gridMinefield = new GridMinefield(game);
+        } else {
+            gridMinefield.setGame(game);
+        }
+        game.setView(gridMinefield);
+        return gridMinefield;
     }
     
     private void gameOver(GameOverArgs args) {
@@ -276,28 +428,18 @@ public class App extends Application {
         alert.setHeaderText(text);
         
         // Add event filter to disable all mouse interaction with the field
-        minefield.addEventFilter(MouseEvent.ANY, e -> e.consume());
+        minefield.addEventFilter(MouseEvent.ANY, blockMouseFilter);
         
         alert.showAndWait();
         
-        // Player won and the difficulty is not custom
-        if (args.win && highscores.containsKey(args.difficulty)) {
-            var highscoresForDifficulty = highscores.get(args.difficulty);
-            int highscoreSize = highscoresForDifficulty.size();
+        if (args.win) {
+            // Negative if the storage cannot keep the difficulty
+            int rank = highscoreStrorage.rank(args.difficulty, args.timeMillis);
             
-            // Either there aren't enough highscores yet 
-            // Or the player beat at least the worst player
-            // This assumes the highscores are sorted
-            if (highscoreSize < MAX_HIGHSCORES || highscoresForDifficulty.get(highscoreSize - 1).getTime() > args.timeSeconds) {
+            // The player beat at least the worst shown player
+            if (rank >= 0 && rank < MAX_HIGHSCORES) {
                 String playerName = showNameInputDialog();
-                var newEntry = new HighscoreEntry(playerName, args.timeSeconds);
-                if (highscoreSize < MAX_HIGHSCORES) {
-                    highscoresForDifficulty.add(newEntry);
-                } else {
-                    highscoresForDifficulty.set(highscoreSize - 1, newEntry);
-                }
-                highscoresForDifficulty.sort(HighscoreEntry.TIME_COMPARATOR);
-                highscoreStrorage.save(highscores);
+                highscoreStrorage.add(args.difficulty, new HighscoreEntry(playerName, args.timeMillis));
                 showHighscores();
             }
         }
@@ -317,7 +459,7 @@ public class App extends Application {
     
     
     private void showHighscores() {
-        var window = new HighscoreStage(highscores);
+        var window = new HighscoreStage(highscoreStrorage, difficulty);
         
         if (icon != null) {
             window.getIcons().add(icon);
@@ -335,7 +477,7 @@ public class App extends Application {
         customDifficulty = new CustomDifficultyDialog(customDifficulty)
                                     .showAndWait()
                                     .orElse(customDifficulty);
-        if (!game.isInProgress()) {
+        if (!isGameInProgress()) {
             changeDifficulty(customDifficulty);
         } else if(customSelected) {
             // If custom difficulty is currently selected
@@ -354,13 +496,32 @@ public class App extends Application {
         }
     }
     
-    private void updateTimeLabel(Number time) {
-        int minutes = time.intValue() / 60;
-        int seconds = time.intValue() % 60;
+    private void updateTimeLabel(long millis) {
+        // Called every frame, the text only changes once per second
+        long time = millis / 1000;
+        if (time == shownSeconds) {
+            return;
+        }
+        shownSeconds = time;
+        long minutes = time / 60;
+        long seconds = time % 60;
         timeLbl.setText(String.format("Time: %02d:%02d", minutes, seconds));
         
     }
     
+    @Override
+    public void stop() {
+        if (analysisService != null) {
+            analysisService.shutdown();
+        }
+        if (highscoreStrorage != null) {
+            highscoreStrorage.close();
+        }
+        if (replayRecorder != null) {
+            replayRecorder.close();
+        }
+    }
+    
     public static void main(String[] args) {
         launch(args);
     }
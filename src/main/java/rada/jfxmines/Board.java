@@ -0,0 +1,413 @@
+package rada.jfxmines;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Minesweeper board model.
+ * Handles mine placement, adjacency, revealing, chording and flags.
+ * It does not depend on JavaFX, so it can be used from plain JVM code.
+ * Cells are addressed either by coordinates or by index {@code y * width + x}.
+ * @author rada
+ *
+ */
+public class Board {
+
+    public enum State {
+        NOT_STARTED, IN_PROGRESS, WON, LOST
+    }
+
+    // Every cell is packed into one byte, indexed by y * width + x
+    // Lower 4 bits hold the number of adjacent mines, the upper bits are flags
+    private static final int ADJACENT_MASK = 0x0F;
+    private static final int MINE_SHIFT = 4;
+    private static final int MINE = 1 << MINE_SHIFT;
+    private static final int REVEALED = 0x20;
+    private static final int FLAG = 0x40;
+    
+    // Boards with at least this many cells compute adjacency on the fork-join pool
+    private static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    private final byte[] cells;
+    private final IntList revealed;
+    private final int width;
+    private final int height;
+    private final int numMines;
+    private int unrevealedCells;
+    private int numFlags;
+    private State state;
+    private long seed;
+    private int firstClickX;
+    private int firstClickY;
+
+    public Board(Difficulty difficulty) {
+        this(difficulty.getWidth(), difficulty.getHeight(), difficulty.getNumMines());
+    }
+
+    public Board(int width, int height, int numMines) {
+        this.width = width;
+        this.height = height;
+        this.numMines = numMines;
+        cells = new byte[width * height];
+        revealed = new IntList();
+        unrevealedCells = width * height;
+        numFlags = 0;
+        state = State.NOT_STARTED;
+    }
+
+    /**
+     * Copy constructor used by {@link #snapshot()}.
+     */
+    private Board(Board other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.numMines = other.numMines;
+        cells = other.cells.clone();
+        revealed = new IntList();
+        unrevealedCells = other.unrevealedCells;
+        numFlags = other.numFlags;
+        state = other.state;
+        seed = other.seed;
+        firstClickX = other.firstClickX;
+        firstClickY = other.firstClickY;
+    }
+
+    /**
+     * Returns an independent copy of the board in its current state.
+     * The copy is not affected by further moves, so it can be read
+     * from another thread while the game goes on.
+     */
+    public Board snapshot() {
+        return new Board(this);
+    }
+
+    /**
+     * Places the mines using a random seed and starts the game.
+     * @param clickedX x-coordinate of clicked cell
+     * @param clickedY y-coordinate of clicked cell
+     * @see #start(int, int, long)
+     */
+    public void start(int clickedX, int clickedY) {
+        start(clickedX, clickedY, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Places the mines and starts the game.
+     * No mine is placed on the clicked cell or next to it,
+     * so the first click is always an opening.
+     * The same seed and first click always produce the same board.
+     * @param clickedX x-coordinate of clicked cell
+     * @param clickedY y-coordinate of clicked cell
+     * @param seed seed of the mine placement
+     */
+    public void start(int clickedX, int clickedY, long seed) {
+        this.seed = seed;
+        this.firstClickX = clickedX;
+        this.firstClickY = clickedY;
+        placeMines(clickedX, clickedY, new SplittableRandom(seed));
+        calculateAdjacent();
+        state = State.IN_PROGRESS;
+    }
+
+    /**
+     * Chooses a uniformly random set of mine cells outside of the safe zone
+     * using Floyd's sampling algorithm. It takes exactly one random number
+     * per mine, no matter how dense the board is.
+     * The mine bits themselves serve as the set of already chosen cells.
+     */
+    private void placeMines(int clickedX, int clickedY, SplittableRandom random) {
+        // Indices of the clicked cell and its neighbors in ascending order
+        var safeZone = new IntList(9);
+        for (int y = Math.max(clickedY - 1, 0); y <= Math.min(clickedY + 1, height - 1); y++) {
+            for (int x = Math.max(clickedX - 1, 0); x <= Math.min(clickedX + 1, width - 1); x++) {
+                safeZone.add(y * width + x);
+            }
+        }
+
+        int eligible = width * height - safeZone.size();
+        if (numMines > eligible) {
+            throw new IllegalArgumentException("Cannot place " + numMines + " mines into " + eligible + " cells");
+        }
+
+        for (int j = eligible - numMines; j < eligible; j++) {
+            int candidate = eligibleToIndex(random.nextInt(j + 1), safeZone);
+            if ((cells[candidate] & MINE) != 0) {
+                // Already chosen, the highest eligible cell is always free at this point
+                candidate = eligibleToIndex(j, safeZone);
+            }
+            cells[candidate] |= MINE;
+        }
+    }
+
+    /**
+     * Maps the n-th cell outside of the safe zone to its index on the board.
+     */
+    private static int eligibleToIndex(int n, IntList safeZone) {
+        int index = n;
+        for (int i = 0; i < safeZone.size(); i++) {
+            if (safeZone.get(i) <= index) {
+                index++;
+            }
+        }
+        return index;
+    }
+
+    // Package-private so it can be benchmarked on its own
+    void calculateAdjacent() {
+        if ((long) width * height >= PARALLEL_THRESHOLD) {
+            // Each task only writes its own row, neighboring rows are only read
+            IntStream.range(0, height).parallel().forEach(this::calculateAdjacentRow);
+        } else {
+            for (int y = 0; y < height; y++) {
+                calculateAdjacentRow(y);
+            }
+        }
+    }
+    
+    /**
+     * Computes adjacent mine counts for one row using a sliding window
+     * over the mine counts of the columns of the 3-row band around it.
+     * @param y row index
+     */
+    private void calculateAdjacentRow(int y) {
+        int rowStart = y * width;
+        int previous = 0;
+        int current = columnMines(0, y);
+        
+        for (int x = 0; x < width; x++) {
+            int next = x < width - 1 ? columnMines(x + 1, y) : 0;
+            int index = rowStart + x;
+            // The cell itself is not its own neighbor
+            int adjacent = previous + current + next - ((cells[index] & MINE) >>> MINE_SHIFT);
+            cells[index] = (byte) ((cells[index] & ~ADJACENT_MASK) | adjacent);
+            previous = current;
+            current = next;
+        }
+    }
+    
+    /**
+     * Counts mines in column x in rows y - 1, y and y + 1.
+     */
+    private int columnMines(int x, int y) {
+        int index = y * width + x;
+        int count = (cells[index] & MINE) >>> MINE_SHIFT;
+        if (y > 0) {
+            count += (cells[index - width] & MINE) >>> MINE_SHIFT;
+        }
+        if (y < height - 1) {
+            count += (cells[index + width] & MINE) >>> MINE_SHIFT;
+        }
+        return count;
+    }
+
+    /**
+     * Reveals a cell. If the cell has no adjacent mines, its neighbors are revealed too.
+     * The returned list is reused, it is only valid until the next call to
+     * {@link #reveal(int, int)} or {@link #chord(int, int)}.
+     * @param x x-coordinate of cell
+     * @param y y-coordinate of cell
+     * @return indices of newly revealed cells
+     */
+    public IntList reveal(int x, int y) {
+        revealed.clear();
+        if (state == State.IN_PROGRESS) {
+            floodFill(y * width + x);
+        }
+        return revealed;
+    }
+
+    /**
+     * Reveals all unflagged neighbors of a revealed cell,
+     * but only if the number of flagged neighbors equals the number on the cell.
+     * The returned list is reused, see {@link #reveal(int, int)}.
+     * @param x x-coordinate of cell
+     * @param y y-coordinate of cell
+     * @return indices of newly revealed cells
+     */
+    public IntList chord(int x, int y) {
+        revealed.clear();
+        if (state != State.IN_PROGRESS || !isRevealed(x, y)) {
+            return revealed;
+        }
+
+        // Make sure the index is within range
+        int startY = y > 0 ? y - 1 : 0;
+        int startX = x > 0 ? x - 1 : 0;
+        int endX = x < width - 1 ? x + 2 : width;
+        int endY = y < height - 1 ? y + 2 : height;
+
+        int flaggedNeighbors = 0;
+        for (int tmpY = startY; tmpY < endY; tmpY++) {
+            for (int tmpX = startX; tmpX < endX; tmpX++) {
+                if ((cells[tmpY * width + tmpX] & FLAG) != 0) {
+                    flaggedNeighbors++;
+                }
+            }
+        }
+        // Only do this if there is a correct number of flags
+        if (flaggedNeighbors != getAdjacent(x, y)) {
+            return revealed;
+        }
+        for (int tmpY = startY; tmpY < endY; tmpY++) {
+            for (int tmpX = startX; tmpX < endX; tmpX++) {
+                if (state != State.LOST) {
+                    floodFill(tmpY * width + tmpX);
+                }
+            }
+        }
+        return revealed;
+    }
+
+    /**
+     * Breadth first flood fill starting at the given cell.
+     * The list of revealed cells doubles as the queue: a cell is marked as revealed
+     * when it is appended, so every cell is enqueued at most once
+     * and no memory is allocated per cell.
+     * @param start index of the first cell
+     */
+    private void floodFill(int start) {
+        int head = revealed.size();
+        open(start);
+
+        while (head < revealed.size()) {
+            int current = revealed.get(head++);
+            if ((cells[current] & (ADJACENT_MASK | MINE)) != 0) {
+                continue;
+            }
+            int x = current % width;
+            int y = current / width;
+            int startY = y > 0 ? y - 1 : 0;
+            int startX = x > 0 ? x - 1 : 0;
+            int endX = x < width - 1 ? x + 2 : width;
+            int endY = y < height - 1 ? y + 2 : height;
+
+            for (int tmpY = startY; tmpY < endY; tmpY++) {
+                for (int tmpX = startX; tmpX < endX; tmpX++) {
+                    open(tmpY * width + tmpX);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a single cell as revealed and appends it to the revealed list.
+     * Flagged and already revealed cells are ignored.
+     * @param index index of the cell
+     */
+    private void open(int index) {
+        int cell = cells[index];
+        if ((cell & (FLAG | REVEALED)) != 0) {
+            return;
+        }
+        cells[index] = (byte) (cell | REVEALED);
+        revealed.add(index);
+        if ((cell & MINE) != 0) {
+            state = State.LOST;
+            return;
+        }
+        unrevealedCells--;
+        if (unrevealedCells <= numMines) {
+            state = State.WON;
+        }
+    }
+
+    /**
+     * Flags or unflags an unrevealed cell. Once the game is over the flags do not change.
+     * @param x x-coordinate of cell
+     * @param y y-coordinate of cell
+     * @return {@code true} if the cell is flagged after the call
+     */
+    public boolean toggleFlag(int x, int y) {
+        int index = y * width + x;
+        if ((cells[index] & REVEALED) != 0) {
+            return false;
+        }
+        if (state == State.WON || state == State.LOST) {
+            return (cells[index] & FLAG) != 0;
+        }
+        cells[index] ^= FLAG;
+        boolean flag = (cells[index] & FLAG) != 0;
+        numFlags += flag ? +1 : -1;
+        return flag;
+    }
+
+    /**
+     * Returns indices of all cells surrounding the given cell.
+     * @param x x-coordinate of cell
+     * @param y y-coordinate of cell
+     * @return list of neighbor indices
+     */
+    public IntList neighbors(int x, int y) {
+        var neighbors = new IntList(8);
+
+        // Make sure the index is within range
+        int startY = y > 0 ? y - 1 : 0;
+        int startX = x > 0 ? x - 1 : 0;
+        int endX = x < width - 1 ? x + 2 : width;
+        int endY = y < height - 1 ? y + 2 : height;
+
+
+        for (int tmpY = startY; tmpY < endY; tmpY++) {
+            for (int tmpX = startX; tmpX < endX; tmpX++) {
+                if (!((tmpX == x) && (tmpY == y))) {
+                    neighbors.add(tmpY * width + tmpX);
+                }
+            }
+        }
+
+        return neighbors;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumMines() {
+        return numMines;
+    }
+
+    public int getNumFlags() {
+        return numFlags;
+    }
+
+    /**
+     * Returns the seed used to place the mines.
+     * Together with the difficulty and the first click it identifies the board.
+     * @return mine placement seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getFirstClickX() {
+        return firstClickX;
+    }
+
+    public int getFirstClickY() {
+        return firstClickY;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isMine(int x, int y) {
+        return (cells[y * width + x] & MINE) != 0;
+    }
+
+    public boolean isRevealed(int x, int y) {
+        return (cells[y * width + x] & REVEALED) != 0;
+    }
+
+    public boolean isFlagged(int x, int y) {
+        return (cells[y * width + x] & FLAG) != 0;
+    }
+
+    public int getAdjacent(int x, int y) {
+        return cells[y * width + x] & ADJACENT_MASK;
+    }
+}
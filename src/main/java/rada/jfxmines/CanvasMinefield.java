@@ -0,0 +1,347 @@
+package rada.jfxmines;
+
+import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.image.Image;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.TextAlignment;
+
+/**
+ * Minefield that draws the board onto a single {@link Canvas}.
+ * Only the visible part of the board is drawn and only changed cells are repainted,
+ * so the size of the scene graph does not depend on the size of the board.
+ * Mouse events are mapped to cells arithmetically.
+ * @author rada
+ *
+ */
+public class CanvasMinefield extends Region implements IMinefieldView {
+    private final Game game;
+    private final Board board;
+    private final Canvas canvas;
+    private final ScrollBar hBar;
+    private final ScrollBar vBar;
+
+    // Cell whose neighbors are highlighted during a middle click, -1 if none
+    private int focusX = -1;
+    private int focusY = -1;
+    // Mine probabilities shown as hints, null if hints are off
+    private double[] hints;
+
+    static final double CELL_SIZE = 24;
+
+    static final Color UNREVEALED_COLOR = Color.rgb(208, 208, 208);
+    private static final Color FOCUSED_COLOR = Color.rgb(232, 232, 232);
+    private static final Color REVEALED_COLOR = Color.rgb(244, 244, 244);
+    private static final Color LIGHT_EDGE_COLOR = Color.WHITE;
+    private static final Color DARK_EDGE_COLOR = Color.GRAY;
+
+    public CanvasMinefield(Game game) {
+        this.game = game;
+        this.board = game.getBoard();
+
+        canvas = new Canvas();
+        hBar = new ScrollBar();
+        hBar.setOrientation(Orientation.HORIZONTAL);
+        vBar = new ScrollBar();
+        vBar.setOrientation(Orientation.VERTICAL);
+        hBar.valueProperty().addListener((obs, oldVal, newVal) -> redraw());
+        vBar.valueProperty().addListener((obs, oldVal, newVal) -> redraw());
+
+        canvas.setOnMousePressed(e -> onMousePressed(e));
+        canvas.setOnMouseReleased(e -> setFocus(-1, -1));
+        canvas.setOnMouseExited(e -> setFocus(-1, -1));
+        canvas.setOnMouseClicked(e -> onMouseClicked(e));
+        canvas.setOnScroll(e -> onScroll(e));
+
+        getChildren().addAll(canvas, hBar, vBar);
+        setPadding(new Insets(10));
+    }
+
+    @Override
+    protected double computePrefWidth(double height) {
+        var insets = getInsets();
+        return insets.getLeft() + board.getWidth() * CELL_SIZE + insets.getRight();
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        var insets = getInsets();
+        return insets.getTop() + board.getHeight() * CELL_SIZE + insets.getBottom();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        var insets = getInsets();
+        double width = getWidth() - insets.getLeft() - insets.getRight();
+        double height = getHeight() - insets.getTop() - insets.getBottom();
+        double contentWidth = board.getWidth() * CELL_SIZE;
+        double contentHeight = board.getHeight() * CELL_SIZE;
+        double barHeight = hBar.prefHeight(-1);
+        double barWidth = vBar.prefWidth(-1);
+
+        // Showing one scroll bar can make the other one necessary
+        boolean needH = contentWidth > width;
+        boolean needV = contentHeight > (needH ? height - barHeight : height);
+        needH = contentWidth > (needV ? width - barWidth : width);
+        if (needH) {
+            height -= barHeight;
+        }
+        if (needV) {
+            width -= barWidth;
+        }
+        width = Math.max(0, Math.min(width, contentWidth));
+        height = Math.max(0, Math.min(height, contentHeight));
+
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+        canvas.relocate(insets.getLeft(), insets.getTop());
+
+        hBar.setVisible(needH);
+        hBar.resizeRelocate(insets.getLeft(), insets.getTop() + height, width, barHeight);
+        hBar.setMax(Math.max(0, contentWidth - width));
+        hBar.setVisibleAmount(hBar.getMax() * width / contentWidth);
+        hBar.setUnitIncrement(CELL_SIZE);
+        hBar.setBlockIncrement(width);
+
+        vBar.setVisible(needV);
+        vBar.resizeRelocate(insets.getLeft() + width, insets.getTop(), barWidth, height);
+        vBar.setMax(Math.max(0, contentHeight - height));
+        vBar.setVisibleAmount(vBar.getMax() * height / contentHeight);
+        vBar.setUnitIncrement(CELL_SIZE);
+        vBar.setBlockIncrement(height);
+
+        redraw();
+    }
+
+    @Override
+    public void boardStarted() {
+        redraw();
+    }
+
+    @Override
+    public void cellsRevealed(IntList revealed) {
+        int width = board.getWidth();
+        for (int j = 0; j < revealed.size(); j++) {
+            int i = revealed.get(j);
+            drawCell(i % width, i / width);
+        }
+    }
+
+    @Override
+    public void flagChanged(int x, int y, boolean flag) {
+        drawCell(x, y);
+    }
+
+    @Override
+    public void hintsChanged(double[] probabilities) {
+        hints = probabilities;
+        redraw();
+    }
+
+    /**
+     * Repaints all visible cells.
+     */
+    private void redraw() {
+        var gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+        int firstX = (int) (scrollX() / CELL_SIZE);
+        int firstY = (int) (scrollY() / CELL_SIZE);
+        int lastX = Math.min(board.getWidth() - 1, (int) ((scrollX() + canvas.getWidth()) / CELL_SIZE));
+        int lastY = Math.min(board.getHeight() - 1, (int) ((scrollY() + canvas.getHeight()) / CELL_SIZE));
+
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                drawCell(x, y);
+            }
+        }
+    }
+
+    /**
+     * Paints a single cell, cells outside of the visible area are skipped.
+     */
+    private void drawCell(int x, int y) {
+        double left = x * CELL_SIZE - scrollX();
+        double top = y * CELL_SIZE - scrollY();
+        if (left + CELL_SIZE <= 0 || top + CELL_SIZE <= 0
+                || left >= canvas.getWidth() || top >= canvas.getHeight()) {
+            return;
+        }
+        var gc = canvas.getGraphicsContext2D();
+
+        if (board.isRevealed(x, y)) {
+            drawRevealed(gc, left, top, board.isMine(x, y), board.getAdjacent(x, y));
+        } else {
+            boolean focused = focusX >= 0 && Math.abs(x - focusX) <= 1 && Math.abs(y - focusY) <= 1;
+            Color fill;
+            if (focused) {
+                fill = FOCUSED_COLOR;
+            } else if (hints != null) {
+                fill = CellNode.hintColor(hints[y * board.getWidth() + x]);
+            } else {
+                fill = UNREVEALED_COLOR;
+            }
+            drawUnrevealed(gc, left, top, fill, board.isFlagged(x, y));
+        }
+    }
+
+    /**
+     * Paints a revealed cell, also used by {@link EndlessMinefield}.
+     */
+    static void drawRevealed(GraphicsContext gc, double left, double top, boolean mine, int adjacent) {
+        gc.setFill(REVEALED_COLOR);
+        gc.fillRect(left, top, CELL_SIZE, CELL_SIZE);
+        gc.setStroke(DARK_EDGE_COLOR);
+        gc.setLineWidth(0.5);
+        gc.strokeRect(left, top, CELL_SIZE, CELL_SIZE);
+
+        if (mine) {
+            drawSymbol(gc, CellNode.BOMB_IMG, "💣", left, top);
+        } else if (adjacent > 0) {
+            gc.setFill(CellNode.LABEL_COLORS[adjacent]);
+            gc.setFont(CellNode.LABEL_FONT);
+            gc.setTextAlign(TextAlignment.CENTER);
+            gc.setTextBaseline(VPos.CENTER);
+            gc.fillText("" + adjacent, left + CELL_SIZE / 2, top + CELL_SIZE / 2);
+        }
+    }
+
+    /**
+     * Paints an unrevealed cell with raised edges, also used by {@link EndlessMinefield}.
+     */
+    static void drawUnrevealed(GraphicsContext gc, double left, double top, Color fill, boolean flagged) {
+        gc.setFill(fill);
+        gc.fillRect(left, top, CELL_SIZE, CELL_SIZE);
+        // Raised edges, light on top left and dark on bottom right
+        gc.setLineWidth(1);
+        gc.setStroke(LIGHT_EDGE_COLOR);
+        gc.strokeLine(left + 0.5, top + 0.5, left + CELL_SIZE - 0.5, top + 0.5);
+        gc.strokeLine(left + 0.5, top + 0.5, left + 0.5, top + CELL_SIZE - 0.5);
+        gc.setStroke(DARK_EDGE_COLOR);
+        gc.strokeLine(left + 0.5, top + CELL_SIZE - 0.5, left + CELL_SIZE - 0.5, top + CELL_SIZE - 0.5);
+        gc.strokeLine(left + CELL_SIZE - 0.5, top + 0.5, left + CELL_SIZE - 0.5, top + CELL_SIZE - 0.5);
+
+        if (flagged) {
+            drawSymbol(gc, CellNode.FLAG_IMG, "🚩", left, top);
+        }
+    }
+
+    private static void drawSymbol(GraphicsContext gc, Image img, String fallback, double left, double top) {
+        if (img != null) {
+            gc.drawImage(img,
+                    left + (CELL_SIZE - CellNode.IMG_WIDTH) / 2,
+                    top + (CELL_SIZE - CellNode.IMG_HEIGHT) / 2,
+                    CellNode.IMG_WIDTH, CellNode.IMG_HEIGHT);
+        } else {
+            gc.setFill(Color.BLACK);
+            gc.setFont(CellNode.LABEL_FONT);
+            gc.setTextAlign(TextAlignment.CENTER);
+            gc.setTextBaseline(VPos.CENTER);
+            gc.fillText(fallback, left + CELL_SIZE / 2, top + CELL_SIZE / 2);
+        }
+    }
+
+    private double scrollX() {
+        return Math.floor(hBar.getValue());
+    }
+
+    private double scrollY() {
+        return Math.floor(vBar.getValue());
+    }
+
+    private int cellX(MouseEvent e) {
+        return (int) Math.floor((e.getX() + scrollX()) / CELL_SIZE);
+    }
+
+    private int cellY(MouseEvent e) {
+        return (int) Math.floor((e.getY() + scrollY()) / CELL_SIZE);
+    }
+
+    private boolean isOnBoard(int x, int y) {
+        return x >= 0 && y >= 0 && x < board.getWidth() && y < board.getHeight();
+    }
+
+    private void onMousePressed(MouseEvent e) {
+        int x = cellX(e);
+        int y = cellY(e);
+        // Either middle button or both left and right button
+        if (isOnBoard(x, y) && board.isRevealed(x, y)
+                && (e.isMiddleButtonDown() || (e.isPrimaryButtonDown() && e.isSecondaryButtonDown()))) {
+            setFocus(x, y);
+        }
+    }
+
+    private void onMouseClicked(MouseEvent e) {
+        int x = cellX(e);
+        int y = cellY(e);
+        if (!isOnBoard(x, y)) {
+            return;
+        }
+
+        if (board.isRevealed(x, y)) {
+            // One of either left or right button is still down, cell was clicked with both buttons
+            // Or middle button was used
+            if (e.isPrimaryButtonDown() || e.isSecondaryButtonDown() || e.getButton() == MouseButton.MIDDLE) {
+                game.middleClick(x, y);
+            }
+            return;
+        }
+
+        // Cell was clicked with both buttons
+        // Do nothing
+        if (e.isPrimaryButtonDown() || e.isSecondaryButtonDown()) {
+            return;
+        }
+
+        if (e.getButton() == MouseButton.PRIMARY) {
+            if (!game.isStarted()) {
+                game.start(x, y);
+            } else {
+                game.reveal(x, y);
+            }
+        } else if (e.getButton() == MouseButton.SECONDARY) {
+            game.toggleFlag(x, y);
+        }
+    }
+
+    private void onScroll(ScrollEvent e) {
+        var bar = e.isShiftDown() || e.getDeltaY() == 0 ? hBar : vBar;
+        double delta = e.getDeltaY() != 0 ? e.getDeltaY() : e.getDeltaX();
+        bar.setValue(Math.max(bar.getMin(), Math.min(bar.getMax(), bar.getValue() - delta)));
+        e.consume();
+    }
+
+    /**
+     * Highlights the unrevealed neighbors of the given cell,
+     * repaints the previously highlighted ones.
+     * @param x x-coordinate of cell, -1 to remove the highlight
+     * @param y y-coordinate of cell, -1 to remove the highlight
+     */
+    private void setFocus(int x, int y) {
+        int oldX = focusX;
+        int oldY = focusY;
+        focusX = x;
+        focusY = y;
+        repaintAround(oldX, oldY);
+        repaintAround(x, y);
+    }
+
+    private void repaintAround(int x, int y) {
+        if (x < 0 || y < 0) {
+            return;
+        }
+        for (int tmpY = Math.max(y - 1, 0); tmpY <= Math.min(y + 1, board.getHeight() - 1); tmpY++) {
+            for (int tmpX = Math.max(x - 1, 0); tmpX <= Math.min(x + 1, board.getWidth() - 1); tmpX++) {
+                drawCell(tmpX, tmpY);
+            }
+        }
+    }
+}
@@ -2,15 +2,11 @@ package rada.jfxmines;
 
 
 import javafx.css.PseudoClass;
-import javafx.event.ActionEvent;
-import javafx.event.EventHandler;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.input.MouseButton;
-import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
@@ -21,12 +17,12 @@ public class CellNode extends StackPane {
     private Label label;
     private ImageView buttonImgV;
     private boolean flag;
+    // Hint bucket shown on the button, -1 if none
+    private int hint = -1;
     private int x;
     private int y;
-    private Game game;
-    private EventHandler<ActionEvent> firstClickEventFilter;
     
-    private static final Color[] LABEL_COLORS = {
+    static final Color[] LABEL_COLORS = {
             Color.color(0, 0, 0, 0),    
             Color.rgb( 66,   0, 255),
             Color.rgb(  0, 136,   0),
@@ -38,23 +34,32 @@ public class CellNode extends StackPane {
             Color.rgb(128, 128, 128)
     };
     
-    private static final Font LABEL_FONT = Font.font("sans", FontWeight.BOLD, 10);
+    static final Font LABEL_FONT = Font.font("sans", FontWeight.BOLD, 10);
     
-    private static final int IMG_HEIGHT = 18;
-    private static final int IMG_WIDTH = 15;
+    static final int IMG_HEIGHT = 18;
+    static final int IMG_WIDTH = 15;
     
     private static final PseudoClass FOCUSED_PSEUDOCLASS = PseudoClass.getPseudoClass("focused");
+    // Look of revealed cells is defined in minefield.css
+    private static final PseudoClass REVEALED_PSEUDOCLASS = PseudoClass.getPseudoClass("revealed");
+    static final String STYLE_CLASS = "cell-node";
     
-    private static final String REVEALED_LBL_CSS = 
-            "-fx-border-color: gray;\n"
-            + "-fx-border-insets: 0;\n"
-            + "-fx-border-width: 0.25;\n"
-            + "-fx-border-style: solid;\n";
+    // Hue of a cell with no chance of a mine, certain mines are red
+    private static final double SAFE_HINT_HUE = 120;
+    // Probabilities are shown rounded to tenths, each has a pseudo class in minefield.css
+    static final int HINT_BUCKETS = 10;
+    private static final PseudoClass[] HINT_PSEUDOCLASSES = new PseudoClass[HINT_BUCKETS + 1];
+    private static final Color[] HINT_COLORS = new Color[HINT_BUCKETS + 1];
     
-    private static Image FLAG_IMG;
-    private static Image BOMB_IMG;
+    static Image FLAG_IMG;
+    static Image BOMB_IMG;
     
     static {
+        for (int i = 0; i <= HINT_BUCKETS; i++) {
+            HINT_PSEUDOCLASSES[i] = PseudoClass.getPseudoClass("hint-" + i);
+            HINT_COLORS[i] = Color.hsb(SAFE_HINT_HUE * (1 - (double) i / HINT_BUCKETS), 0.35, 0.9);
+        }
+        
         try {
             FLAG_IMG = new Image(CellNode.class.getResourceAsStream("/flag.png"));
         } catch (Exception e) {
@@ -70,20 +75,19 @@ public class CellNode extends StackPane {
         }
     }
     
-    public CellNode(Game game, int x, int y) {
+    /**
+     * Mouse input is handled by {@link GridMinefield}, the cell only displays its state.
+     */
+    public CellNode(int x, int y) {
         super();
         this.x = x;
         this.y = y;
-        this.game = game;
         
         makeLabel();
         makeButton();
         
-        // Filter for first click, it is removed in Game::start
-        firstClickEventFilter = e -> game.start(x, y);
-        this.addEventFilter(ActionEvent.ACTION, firstClickEventFilter);
-        
         this.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
+        this.getStyleClass().add(STYLE_CLASS);
         
         
         this.getChildren().add(label);
@@ -96,25 +100,12 @@ public class CellNode extends StackPane {
         label.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
         label.setFont(LABEL_FONT);
         label.setAlignment(Pos.CENTER);
-        
-        
-
-        
-        // Focus / unfocus neighboring cells on middle click / both buttons click
-        label.setOnMousePressed(e -> onLabelPress(e));
-        label.setOnMouseReleased(e -> setNeighborFocus(x, y, false));
-        // Unfocus neighbors when mouse exits
-        label.setOnMouseExited(e -> setNeighborFocus(x, y, false));
-        
-        // Actual middle click reaction that reveals neighboring cells
-        label.setOnMouseClicked(e -> onLabelClick(e));
     }
     
     private void makeButton() {
         button = new Button();
         button.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
         button.setFont(LABEL_FONT);
-        button.setOnMouseClicked(e -> onButtonClick(e));
         
         if (FLAG_IMG != null) {
             buttonImgV = new ImageView(FLAG_IMG);
@@ -129,56 +120,32 @@ public class CellNode extends StackPane {
         button.setFocusTraversable(false);
     }
     
-    private void onLabelPress(MouseEvent e) {
-        // Either middle button or both left and right button
-        if (e.isMiddleButtonDown() || (e.isPrimaryButtonDown() && e.isSecondaryButtonDown())) {
-            setNeighborFocus(x, y, true);
-        }
-    }
-
-    /**
-     * Sets the focused pseudo class for all unrevealed neighboring cells.
-     * 
-     * @param x x-coordinate of cell
-     * @param y y-coordinate of cell
-     * @param focused value to set
-     */
-    private void setNeighborFocus(int x, int y, boolean focused) {
-        game.getNeighborCellNodes(x, y).stream()
-                .map(n -> n.button)
-                .filter(btn -> btn != null)
-                .forEach(btn -> btn.pseudoClassStateChanged(FOCUSED_PSEUDOCLASS, focused));
+    public int getCellX() {
+        return x;
     }
     
-    private void onLabelClick(MouseEvent e) {
-        // One of either left or right button is still down, button was clicked with both buttons
-        // Or middle button was used
-        if (e.isPrimaryButtonDown() || e.isSecondaryButtonDown() || e.getButton() == MouseButton.MIDDLE) {
-            game.middleClick(x, y);
-        }
-        return;
+    public int getCellY() {
+        return y;
     }
-
-    public void removeFirstClickFilter() {
-        this.removeEventFilter(ActionEvent.ACTION, firstClickEventFilter);
+    
+    /**
+     * Highlights an unrevealed cell while a neighbor is middle clicked.
+     */
+    public void setHighlight(boolean highlight) {
+        button.pseudoClassStateChanged(FOCUSED_PSEUDOCLASS, highlight);
     }
     
-    private void onButtonClick(MouseEvent e) {
-        // Button was clicked with both buttons
-        // Do nothing
-        if (e.isPrimaryButtonDown() || e.isSecondaryButtonDown()) {
-            return;
-        }
-        
-        var mouseBtn = e.getButton();
-        
-        if (mouseBtn == MouseButton.PRIMARY) {
-            game.reveal(x, y);
-        } else if (mouseBtn == MouseButton.SECONDARY) {
-            game.toggleFlag(x, y);
-        }
-        
-        return;
+    /**
+     * Returns the cell to its initial state so that it can be used in another game.
+     */
+    public void reset() {
+        setFlag(false);
+        setHint(Double.NaN);
+        setHighlight(false);
+        label.setText("");
+        label.setGraphic(null);
+        button.setVisible(true);
+        pseudoClassStateChanged(REVEALED_PSEUDOCLASS, false);
     }
 
     /**
@@ -225,11 +192,41 @@ public class CellNode extends StackPane {
     
     public void reveal() {
         // If we were to remove the button, the size of the cell could change
-        // Instead the button is made invisible
-        button.setOpacity(0);
-        button.setDisable(true);
+        // Instead the button is hidden, it keeps its place in the layout but gets no mouse events
+        button.setVisible(false);
         
-        label.setStyle(REVEALED_LBL_CSS);
+        pseudoClassStateChanged(REVEALED_PSEUDOCLASS, true);
+    }
+    
+    /**
+     * Tints the button by the probability of a mine under it.
+     * Only a pseudo class is switched and only if the rounded probability changed.
+     * @param probability probability between 0 and 1, {@code NaN} removes the tint
+     */
+    public void setHint(double probability) {
+        int bucket = Double.isNaN(probability) ? -1 : hintBucket(probability);
+        if (bucket == hint) {
+            return;
+        }
+        if (hint >= 0) {
+            button.pseudoClassStateChanged(HINT_PSEUDOCLASSES[hint], false);
+        }
+        if (bucket >= 0) {
+            button.pseudoClassStateChanged(HINT_PSEUDOCLASSES[bucket], true);
+        }
+        hint = bucket;
+    }
+    
+    private static int hintBucket(double probability) {
+        return (int) Math.round(Math.max(0, Math.min(1, probability)) * HINT_BUCKETS);
+    }
+    
+    /**
+     * Color of a hint, from green for safe cells to red for certain mines.
+     * Same as the colors of the pseudo classes in minefield.css.
+     */
+    static Color hintColor(double probability) {
+        return HINT_COLORS[hintBucket(probability)];
     }
     
     public void setAdjacent(int adjacent) {
@@ -0,0 +1,357 @@
+package rada.jfxmines;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Endless minesweeper board.
+ * The board is split into square chunks that are generated on demand
+ * from the world seed and the chunk coordinates, so the same seed always
+ * produces the same world. Only chunks the player has touched are kept,
+ * other chunks are dropped and generated again when they are needed.
+ * Memory use is therefore proportional to the explored area.
+ * <p>
+ * Coordinates can be negative. The game starts by revealing the cell at 0, 0,
+ * which is guaranteed to be an opening.
+ * @author rada
+ *
+ */
+public class ChunkedBoard {
+
+    public enum State {
+        IN_PROGRESS, LOST
+    }
+
+    public static final int CHUNK_SHIFT = 6;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Same cell layout as Board
+    private static final int ADJACENT_MASK = 0x0F;
+    private static final int MINE_SHIFT = 4;
+    private static final int MINE = 1 << MINE_SHIFT;
+    private static final int REVEALED = 0x20;
+    private static final int FLAG = 0x40;
+
+    // Below this density openings grow without bound, cells without adjacent mines percolate
+    // at about 0.095 and a single click could reveal hundreds of thousands of cells at 0.1
+    public static final double MIN_DENSITY = 0.12;
+
+    // Untouched chunks are dropped once there are this many of them
+    private static final int MAX_UNTOUCHED_CHUNKS = 64;
+
+    private final long seed;
+    private final double density;
+    private final Map<Long, Chunk> chunks;
+    private final IntList revealed;
+    private int untouchedChunks;
+    private long revealedCells;
+    private int numFlags;
+    private State state;
+
+    /**
+     * @param seed world seed
+     * @param density probability that a cell is a mine, at least {@value #MIN_DENSITY}
+     */
+    public ChunkedBoard(long seed, double density) {
+        if (density < MIN_DENSITY || density >= 1) {
+            throw new IllegalArgumentException("Mine density must be between " + MIN_DENSITY + " and 1");
+        }
+        this.seed = seed;
+        this.density = density;
+        chunks = new HashMap<>();
+        revealed = new IntList();
+        untouchedChunks = 0;
+        revealedCells = 0;
+        numFlags = 0;
+        state = State.IN_PROGRESS;
+    }
+
+    /**
+     * Reveals a cell. If the cell has no adjacent mines, its neighbors are revealed too,
+     * the flood fill continues across chunk boundaries.
+     * The returned list holds x and y of every revealed cell one after another.
+     * It is reused, so it is only valid until the next call to
+     * {@link #reveal(int, int)} or {@link #chord(int, int)}.
+     * @param x x-coordinate of cell
+     * @param y y-coordinate of cell
+     * @return coordinates of newly revealed cells
+     */
+    public IntList reveal(int x, int y) {
+        revealed.clear();
+        if (state == State.IN_PROGRESS) {
+            floodFill(x, y);
+        }
+        evictUntouched();
+        return revealed;
+    }
+
+    /**
+     * Reveals all unflagged neighbors of a revealed cell,
+     * but only if the number of flagged neighbors equals the number on the cell.
+     * The returned list has the same format as in {@link #reveal(int, int)}.
+     * @param x x-coordinate of cell
+     * @param y y-coordinate of cell
+     * @return coordinates of newly revealed cells
+     */
+    public IntList chord(int x, int y) {
+        revealed.clear();
+        if (state != State.IN_PROGRESS || !isRevealed(x, y)) {
+            return revealed;
+        }
+
+        int flaggedNeighbors = 0;
+        for (int tmpY = y - 1; tmpY <= y + 1; tmpY++) {
+            for (int tmpX = x - 1; tmpX <= x + 1; tmpX++) {
+                if (isFlagged(tmpX, tmpY)) {
+                    flaggedNeighbors++;
+                }
+            }
+        }
+        // Only do this if there is a correct number of flags
+        if (flaggedNeighbors == getAdjacent(x, y)) {
+            for (int tmpY = y - 1; tmpY <= y + 1; tmpY++) {
+                for (int tmpX = x - 1; tmpX <= x + 1; tmpX++) {
+                    if (state != State.LOST) {
+                        floodFill(tmpX, tmpY);
+                    }
+                }
+            }
+        }
+        evictUntouched();
+        return revealed;
+    }
+
+    /**
+     * Flags or unflags an unrevealed cell.
+     * @param x x-coordinate of cell
+     * @param y y-coordinate of cell
+     * @return {@code true} if the cell is flagged after the call
+     */
+    public boolean toggleFlag(int x, int y) {
+        var chunk = chunkAt(x, y);
+        int index = cellIndex(x, y);
+        if ((chunk.cells[index] & REVEALED) != 0) {
+            return false;
+        }
+        chunk.cells[index] ^= FLAG;
+        boolean flag = (chunk.cells[index] & FLAG) != 0;
+        numFlags += flag ? +1 : -1;
+        touch(chunk, flag ? +1 : -1);
+        evictUntouched();
+        return flag;
+    }
+
+    /**
+     * Breadth first flood fill, the list of revealed cells doubles as the queue.
+     * Cells are marked as revealed when they are appended, so each is enqueued once.
+     */
+    private void floodFill(int startX, int startY) {
+        int head = revealed.size();
+        open(startX, startY);
+
+        while (head < revealed.size()) {
+            int x = revealed.get(head++);
+            int y = revealed.get(head++);
+            if (isMine(x, y) || getAdjacent(x, y) != 0) {
+                continue;
+            }
+            for (int tmpY = y - 1; tmpY <= y + 1; tmpY++) {
+                for (int tmpX = x - 1; tmpX <= x + 1; tmpX++) {
+                    open(tmpX, tmpY);
+                }
+            }
+        }
+    }
+
+    private void open(int x, int y) {
+        var chunk = chunkAt(x, y);
+        int index = cellIndex(x, y);
+        int cell = chunk.cells[index];
+        if ((cell & (FLAG | REVEALED)) != 0) {
+            return;
+        }
+        computeAdjacent(chunk);
+        chunk.cells[index] |= REVEALED;
+        touch(chunk, +1);
+        revealed.add(x);
+        revealed.add(y);
+        if ((cell & MINE) != 0) {
+            state = State.LOST;
+            return;
+        }
+        revealedCells++;
+    }
+
+    private void touch(Chunk chunk, int delta) {
+        if (chunk.touchedCells == 0) {
+            untouchedChunks--;
+        }
+        chunk.touchedCells += delta;
+        if (chunk.touchedCells == 0) {
+            untouchedChunks++;
+        }
+    }
+
+    /**
+     * Drops chunks without revealed or flagged cells.
+     * They are only kept for mine lookups and can be generated again at any time.
+     */
+    private void evictUntouched() {
+        if (untouchedChunks < MAX_UNTOUCHED_CHUNKS) {
+            return;
+        }
+        chunks.values().removeIf(chunk -> chunk.touchedCells == 0);
+        untouchedChunks = 0;
+    }
+
+    /**
+     * Returns the chunk containing the given cell, the chunk is generated if needed.
+     */
+    private Chunk chunkAt(int x, int y) {
+        return chunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+    }
+
+    private Chunk chunk(int chunkX, int chunkY) {
+        long key = ((long) chunkX << 32) | (chunkY & 0xFFFFFFFFL);
+        var chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = generate(chunkX, chunkY);
+            chunks.put(key, chunk);
+            untouchedChunks++;
+        }
+        return chunk;
+    }
+
+    private static int cellIndex(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+    }
+
+    /**
+     * Places mines of a chunk. The generator is seeded by the world seed
+     * and the chunk coordinates, so the result does not depend on the order
+     * in which chunks are generated.
+     */
+    private Chunk generate(int chunkX, int chunkY) {
+        var random = new SplittableRandom(seed
+                ^ (chunkX * 0x9E3779B97F4A7C15L)
+                ^ (chunkY * 0xC2B2AE3D27D4EB4FL));
+        var chunk = new Chunk(chunkX, chunkY);
+        for (int i = 0; i < chunk.cells.length; i++) {
+            if (random.nextDouble() < density) {
+                chunk.cells[i] = MINE;
+            }
+        }
+        // Keep the starting cell and its neighbors free, so the first click is an opening
+        for (int y = -1; y <= 1; y++) {
+            for (int x = -1; x <= 1; x++) {
+                if (x >> CHUNK_SHIFT == chunkX && y >> CHUNK_SHIFT == chunkY) {
+                    chunk.cells[cellIndex(x, y)] = 0;
+                }
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Computes adjacent mine counts of a whole chunk.
+     * Mines of the 8 surrounding chunks are copied into a padded mine map first,
+     * so the counting itself does no map lookups.
+     */
+    private void computeAdjacent(Chunk chunk) {
+        if (chunk.adjacentComputed) {
+            return;
+        }
+        int padded = CHUNK_SIZE + 2;
+        var mines = new byte[padded * padded];
+        for (int y = -1; y <= CHUNK_SIZE; y++) {
+            for (int x = -1; x <= CHUNK_SIZE; x++) {
+                boolean inside = x >= 0 && y >= 0 && x < CHUNK_SIZE && y < CHUNK_SIZE;
+                var source = inside ? chunk : chunk(chunk.chunkX + Math.floorDiv(x, CHUNK_SIZE), chunk.chunkY + Math.floorDiv(y, CHUNK_SIZE));
+                mines[(y + 1) * padded + x + 1] = (byte) ((source.cells[cellIndex(x, y)] & MINE) >>> MINE_SHIFT);
+            }
+        }
+
+        for (int y = 0; y < CHUNK_SIZE; y++) {
+            for (int x = 0; x < CHUNK_SIZE; x++) {
+                int center = (y + 1) * padded + x + 1;
+                int adjacent = mines[center - padded - 1] + mines[center - padded] + mines[center - padded + 1]
+                        + mines[center - 1] + mines[center + 1]
+                        + mines[center + padded - 1] + mines[center + padded] + mines[center + padded + 1];
+                int index = (y << CHUNK_SHIFT) | x;
+                chunk.cells[index] = (byte) ((chunk.cells[index] & ~ADJACENT_MASK) | adjacent);
+            }
+        }
+        chunk.adjacentComputed = true;
+    }
+
+    public boolean isRevealed(int x, int y) {
+        var chunk = loadedChunkAt(x, y);
+        return chunk != null && (chunk.cells[cellIndex(x, y)] & REVEALED) != 0;
+    }
+
+    public boolean isFlagged(int x, int y) {
+        var chunk = loadedChunkAt(x, y);
+        return chunk != null && (chunk.cells[cellIndex(x, y)] & FLAG) != 0;
+    }
+
+    public boolean isMine(int x, int y) {
+        return (chunkAt(x, y).cells[cellIndex(x, y)] & MINE) != 0;
+    }
+
+    public int getAdjacent(int x, int y) {
+        var chunk = chunkAt(x, y);
+        computeAdjacent(chunk);
+        return chunk.cells[cellIndex(x, y)] & ADJACENT_MASK;
+    }
+
+    private Chunk loadedChunkAt(int x, int y) {
+        long key = ((long) (x >> CHUNK_SHIFT) << 32) | ((y >> CHUNK_SHIFT) & 0xFFFFFFFFL);
+        return chunks.get(key);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public double getDensity() {
+        return density;
+    }
+
+    /**
+     * Returns the number of revealed safe cells, which serves as the score.
+     */
+    public long getRevealedCells() {
+        return revealedCells;
+    }
+
+    public int getNumFlags() {
+        return numFlags;
+    }
+
+    /**
+     * Returns the number of chunks currently held in memory.
+     */
+    public int getLoadedChunks() {
+        return chunks.size();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private static class Chunk {
+        public final byte[] cells = new byte[CHUNK_SIZE * CHUNK_SIZE];
+        public final int chunkX;
+        public final int chunkY;
+        // Number of revealed or flagged cells
+        public int touchedCells;
+        public boolean adjacentComputed;
+        
+        public Chunk(int chunkX, int chunkY) {
+            this.chunkX = chunkX;
+            this.chunkY = chunkY;
+        }
+    }
+}
@@ -15,9 +15,10 @@ public class CustomDifficultyDialog extends Dialog<Difficulty> {
     private Spinner<Integer> minesSp;
     
     private static final int MIN_MINES = 1;
-    private static final int MAX_MINES = 99;
+    // Also the limits of replays that are accepted
+    static final int MAX_MINES = 250_000;
     
-    private static final int MAX_SIZE = 40;
+    static final int MAX_SIZE = 1000;
     private static final int MIN_SIZE = 5;
     
     private Difficulty difficulty;
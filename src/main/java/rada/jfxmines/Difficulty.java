@@ -64,12 +64,21 @@ public class Difficulty {
         return numMines;
     }
     
+    /**
+     * Describes the size of the board, e.g. {@code 30x16, 99 mines}.
+     */
+    @Override
+    public String toString() {
+        return width + "x" + height + ", " + numMines + " mines";
+    }
+    
     private static boolean isValid(int width, int height, int numMines) {
         if (width < 4 || height < 4) {
             return false;
         } 
 
-        if (numMines > width * height - 9) {
+        // The product of large sizes does not fit an int
+        if (numMines > (long) width * height - 9) {
             return false;
         }
         
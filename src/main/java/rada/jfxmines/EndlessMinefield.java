@@ -0,0 +1,168 @@
+package rada.jfxmines;
+
+import javafx.geometry.Insets;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+
+/**
+ * Minefield of the endless mode, draws the visible part of a {@link ChunkedBoard} onto a canvas.
+ * The board has no edges, the view is moved by dragging the mouse or with the scroll wheel.
+ * Nothing but the cells in view is drawn, so chunks outside of it are never looked at.
+ * @author rada
+ *
+ */
+public class EndlessMinefield extends Region {
+    private static final double CELL_SIZE = CanvasMinefield.CELL_SIZE;
+
+    private final ChunkedBoard board;
+    private final Canvas canvas;
+    private Runnable onChange;
+    // Position of the top left corner of the view in pixels, cell 0, 0 starts at 0, 0
+    private double viewX;
+    private double viewY;
+    private boolean centered;
+    // Last mouse position while dragging
+    private double dragX;
+    private double dragY;
+
+    /**
+     * Creates the view and reveals the starting opening at 0, 0.
+     */
+    public EndlessMinefield(ChunkedBoard board) {
+        this.board = board;
+        board.reveal(0, 0);
+
+        canvas = new Canvas();
+        canvas.setOnMousePressed(e -> {
+            dragX = e.getX();
+            dragY = e.getY();
+        });
+        canvas.setOnMouseDragged(e -> onMouseDragged(e));
+        canvas.setOnMouseClicked(e -> onMouseClicked(e));
+        canvas.setOnScroll(e -> onScroll(e));
+
+        getChildren().add(canvas);
+        setPadding(new Insets(10));
+    }
+
+    /**
+     * Sets a function called after every move, e.g. to show the score.
+     */
+    public void setOnChange(Runnable onChange) {
+        this.onChange = onChange;
+    }
+
+    public ChunkedBoard getBoard() {
+        return board;
+    }
+
+    @Override
+    protected void layoutChildren() {
+        var insets = getInsets();
+        double width = Math.max(0, getWidth() - insets.getLeft() - insets.getRight());
+        double height = Math.max(0, getHeight() - insets.getTop() - insets.getBottom());
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+        canvas.relocate(insets.getLeft(), insets.getTop());
+        if (!centered && width > 0) {
+            // Start with the opening in the middle
+            viewX = Math.floor((CELL_SIZE - width) / 2);
+            viewY = Math.floor((CELL_SIZE - height) / 2);
+            centered = true;
+        }
+        redraw();
+    }
+
+    /**
+     * Repaints all visible cells.
+     */
+    private void redraw() {
+        var gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+        int firstX = (int) Math.floor(viewX / CELL_SIZE);
+        int firstY = (int) Math.floor(viewY / CELL_SIZE);
+        int lastX = (int) Math.floor((viewX + canvas.getWidth()) / CELL_SIZE);
+        int lastY = (int) Math.floor((viewY + canvas.getHeight()) / CELL_SIZE);
+
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                drawCell(x, y);
+            }
+        }
+    }
+
+    private void drawCell(int x, int y) {
+        double left = x * CELL_SIZE - viewX;
+        double top = y * CELL_SIZE - viewY;
+        var gc = canvas.getGraphicsContext2D();
+        // Only chunks with revealed cells are read, the others are not generated just to be drawn
+        if (board.isRevealed(x, y)) {
+            CanvasMinefield.drawRevealed(gc, left, top, board.isMine(x, y), board.getAdjacent(x, y));
+        } else {
+            CanvasMinefield.drawUnrevealed(gc, left, top, CanvasMinefield.UNREVEALED_COLOR, board.isFlagged(x, y));
+        }
+    }
+
+    private void cellsRevealed(IntList revealed) {
+        // The list holds x and y of every cell
+        for (int j = 0; j + 1 < revealed.size(); j += 2) {
+            drawCell(revealed.get(j), revealed.get(j + 1));
+        }
+        if (onChange != null) {
+            onChange.run();
+        }
+    }
+
+    private void onMouseDragged(MouseEvent e) {
+        viewX = Math.floor(viewX - (e.getX() - dragX));
+        viewY = Math.floor(viewY - (e.getY() - dragY));
+        dragX = e.getX();
+        dragY = e.getY();
+        redraw();
+    }
+
+    private void onMouseClicked(MouseEvent e) {
+        // The mouse was dragged to move the view
+        if (!e.isStillSincePress() || board.getState() != ChunkedBoard.State.IN_PROGRESS) {
+            return;
+        }
+        int x = (int) Math.floor((e.getX() + viewX) / CELL_SIZE);
+        int y = (int) Math.floor((e.getY() + viewY) / CELL_SIZE);
+
+        if (board.isRevealed(x, y)) {
+            // Either middle button or both left and right button
+            if (e.isPrimaryButtonDown() || e.isSecondaryButtonDown() || e.getButton() == MouseButton.MIDDLE) {
+                cellsRevealed(board.chord(x, y));
+            }
+            return;
+        }
+        // Cell was clicked with both buttons
+        if (e.isPrimaryButtonDown() || e.isSecondaryButtonDown()) {
+            return;
+        }
+        if (e.getButton() == MouseButton.PRIMARY) {
+            cellsRevealed(board.reveal(x, y));
+        } else if (e.getButton() == MouseButton.SECONDARY) {
+            board.toggleFlag(x, y);
+            drawCell(x, y);
+            if (onChange != null) {
+                onChange.run();
+            }
+        }
+    }
+
+    private void onScroll(ScrollEvent e) {
+        if (e.isShiftDown()) {
+            viewX = Math.floor(viewX - (e.getDeltaY() != 0 ? e.getDeltaY() : e.getDeltaX()));
+        } else {
+            viewX = Math.floor(viewX - e.getDeltaX());
+            viewY = Math.floor(viewY - e.getDeltaY());
+        }
+        redraw();
+        e.consume();
+    }
+}
@@ -1,128 +1,181 @@
 package rada.jfxmines;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Random;
+import java.util.OptionalLong;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleIntegerProperty;
-import javafx.util.Duration;
 
 public class Game {
-    private CellNode[][] cellNodes;
-    private Cell[][] cells;
-    private int numMines;
+    private IMinefieldView view;
+    private Board board;
     private SimpleIntegerProperty numFlagsProperty;
-    private SimpleIntegerProperty timeProperty;
-    private Timeline timeline;
-    private int unrevealedCells;
+    private SimpleBooleanProperty inProgressProperty;
+    private SimpleBooleanProperty startingProperty;
+    // Search for a no-guess board started by the first click, null if none is running
+    private CompletableFuture<OptionalLong> pendingStart;
+    // Monotonic clock readings of the first click and the final reveal
+    private long startNanos;
+    private long endNanos;
     private Consumer<GameOverArgs> onGameOver;
     private Difficulty difficulty;
-    private boolean gameInProgress;
+    private boolean noGuess;
+    // The board was generated without guessing, false if the search gave up
+    private boolean noGuessBoard;
+    private AnalysisService analysisService;
+    private ReplayRecorder recorder;
+    
+    // Give up looking for a board without guessing after this long
+    private static final long NO_GUESS_TIMEOUT_MILLIS = 500;
     
     public Game(Difficulty difficulty) {
-        this(difficulty.getWidth(), difficulty.getHeight(), difficulty.getNumMines());
         this.difficulty = difficulty;
-    }
-    
-    private Game(int width, int height, int numMines) {
-        cellNodes = new CellNode[height][];
-        cells = new Cell[height][width];
-        this.numMines = numMines;
-        unrevealedCells = width * height;
+        board = new Board(difficulty);
         numFlagsProperty = new SimpleIntegerProperty(0);
-        timeProperty = new SimpleIntegerProperty(0);
-        gameInProgress = false;
-        
-        // Timer that counts seconds
-        timeline = new Timeline();
-        timeline.getKeyFrames().add(new KeyFrame(Duration.millis(1000), e -> timeProperty.set(timeProperty.get() + 1)));
-        timeline.setCycleCount(Animation.INDEFINITE);
-        
-        for (int y = 0; y < cellNodes.length; y++) {
-            cellNodes[y] = new CellNode[width];
-            cells[y] = new Cell[width];
-            for (int x = 0; x < cellNodes[y].length; x++) {
-                cellNodes[y][x] = new CellNode(this, x, y);
-                cells[y][x] = new Cell();
-                cells[y][x].x = x;
-                cells[y][x].y = y;
-            }
-        }
+        inProgressProperty = new SimpleBooleanProperty(false);
+        startingProperty = new SimpleBooleanProperty(false);
     }
     
     /**
-     * Starts the game.
+     * Starts the game and reveals the clicked cell.
+     * A board without guessing is searched for on background threads, the game starts
+     * once it is found and moves made in the meantime are ignored, see {@link #startingProperty()}.
      * @param x x-coordinate of clicked cell
      * @param y y-coordinate of clicked cell
      */
     public void start(int clickedX, int clickedY) {
-        var random = new Random();
-        int width = cells[0].length;
-        int height = cells.length;
-        
-        int remaining = numMines;
-        
-        while (remaining > 0) {
-            int x = random.nextInt(width);
-            int y = random.nextInt(height);
-            
-            // Check if generated point is near clicked cell
-            // That is to ensure that the first click is an opening
-            if (Math.abs(x - clickedX) > 1 || Math.abs(y - clickedY) > 1) {
-                // If there is a mine already, another number is generated
-                if (!cells[y][x].isMine) {
-                    cells[y][x].isMine = true;
-                    remaining--;
-                }
-            }
+        if (isStarted() || isStarting()) {
+            return;
+        }
+        long seed = new SplittableRandom().nextLong();
+        if (!noGuess) {
+            begin(clickedX, clickedY, seed);
+            return;
         }
-        calculateAdjacent();
-        removeFilters();
-        gameInProgress = true;
-        timeline.playFromStart();
-    }
-    
-    private void calculateAdjacent() {
-        int width = cells[0].length;
-        int height = cells.length;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                cells[y][x].adjacent = (int)neighbors(x, y)
-                                                .stream()
-                                                .filter(cell -> cell.isMine)
-                                                .count();
-                
-                cellNodes[y][x].setAdjacent(cells[y][x].adjacent);
-                cellNodes[y][x].setMine(cells[y][x].isMine);
+        var search = NoGuessGenerator.findSeedAsync(difficulty, clickedX, clickedY, NO_GUESS_TIMEOUT_MILLIS);
+        pendingStart = search;
+        startingProperty.set(true);
+        search.whenComplete((found, error) -> Platform.runLater(() -> {
+            // The game was abandoned during the search
+            if (pendingStart != search) {
+                return;
             }
+            pendingStart = null;
+            // Fall back to a regular board if no solvable one is found in time,
+            // the replay and isNoGuessBoard() tell so
+            noGuessBoard = found != null && found.isPresent();
+            startingProperty.set(false);
+            begin(clickedX, clickedY, noGuessBoard ? found.getAsLong() : seed);
+        }));
+    }
+    
+    /**
+     * Stops waiting for a no-guess board, the game does not start when the search ends.
+     */
+    public void cancelStart() {
+        if (pendingStart != null) {
+            pendingStart = null;
+            startingProperty.set(false);
         }
     }
     
-    private void removeFilters() {
-        int width = cells[0].length;
-        int height = cells.length;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                cellNodes[y][x].removeFirstClickFilter();
-            }
+    private void begin(int clickedX, int clickedY, long seed) {
+        board.start(clickedX, clickedY, seed);
+        if (view != null) {
+            view.boardStarted();
         }
+        // The clock starts after the board is generated, a search for a no-guess board is not counted
+        startNanos = System.nanoTime();
+        inProgressProperty.set(true);
+        if (recorder != null) {
+            recorder.gameStarted(board, noGuessBoard);
+        }
+        reveal(clickedX, clickedY);
     }
     
     public SimpleIntegerProperty numFlagsProperty() {
         return numFlagsProperty;
     }
     
-    public SimpleIntegerProperty timeProperty() {
-        return timeProperty;
+    /**
+     * {@code true} from the first click until the game is over.
+     */
+    public ReadOnlyBooleanProperty inProgressProperty() {
+        return inProgressProperty;
+    }
+    
+    /**
+     * {@code true} while a board without guessing is being searched for after the first click.
+     */
+    public ReadOnlyBooleanProperty startingProperty() {
+        return startingProperty;
+    }
+    
+    public boolean isStarting() {
+        return startingProperty.get();
+    }
+    
+    /**
+     * Returns the time since the first click, or the duration of the game once it is over.
+     * @return elapsed time in milliseconds, 0 before the first click
+     */
+    public long getElapsedMillis() {
+        if (!isStarted()) {
+            return 0;
+        }
+        long end = isInProgress() ? System.nanoTime() : endNanos;
+        return (end - startNanos) / 1_000_000;
+    }
+    
+    /**
+     * If set to {@code true}, the board is generated so that it can be solved without guessing.
+     * Must be set before the first click.
+     */
+    public void setNoGuess(boolean noGuess) {
+        this.noGuess = noGuess;
     }
     
-    public CellNode[][] getCellNodes() {
-        return cellNodes;
+    /**
+     * Returns {@code true} if the board was generated so that it can be solved without guessing.
+     * {@code false} before the first click, and when no such board was found in time and a regular one is played.
+     */
+    public boolean isNoGuessBoard() {
+        return noGuessBoard;
+    }
+    
+    /**
+     * Sets the service used to compute hints after every move, {@code null} turns the hints off.
+     */
+    public void setAnalysisService(AnalysisService analysisService) {
+        if (this.analysisService != null) {
+            this.analysisService.cancel();
+        }
+        this.analysisService = analysisService;
+        if (analysisService != null) {
+            analyze();
+        } else if (view != null) {
+            view.hintsChanged(null);
+        }
+    }
+    
+    /**
+     * Sets the recorder the game is recorded with, {@code null} if the game is not recorded.
+     * Must be set before the first click.
+     */
+    public void setRecorder(ReplayRecorder recorder) {
+        this.recorder = recorder;
+    }
+    
+    public void setView(IMinefieldView view) {
+        this.view = view;
+    }
+    
+    public Board getBoard() {
+        return board;
     }
     
     public void setOnGameOver(Consumer<GameOverArgs> f) {
@@ -130,104 +183,102 @@ public class Game {
     }
     
     public void reveal(int x, int y) {
-        var queue = new LinkedList<Cell>();
-        queue.add(cells[y][x]);
-        
-        while (!queue.isEmpty()) {
-            var current = queue.remove();
-            if (current.flag || current.revealed) {
-                continue;
-            }
-            cellNodes[current.y][current.x].reveal();
-            if (current.isMine) {
-                gameOver(false);
-                return;
-            }
-            current.revealed = true;
-            unrevealedCells--;
-            if (unrevealedCells <= numMines) {
-                gameOver(true);
-            }
-            if (current.adjacent == 0) {
-                queue.addAll(neighbors(current.x, current.y));
-            }
+        if (isStarting()) {
+            return;
         }
+        record(Replay.REVEAL, x, y);
+        cellsRevealed(board.reveal(x, y));
     }
     
-    public void revealNeighbors(int x, int y) {
-        neighbors(x, y).stream()
-            .filter(c -> !c.revealed)
-            .forEach(c -> reveal(c.x, c.y));
+    public void middleClick(int x, int y) {
+        if (isStarting()) {
+            return;
+        }
+        record(Replay.CHORD, x, y);
+        cellsRevealed(board.chord(x, y));
     }
     
-    public void middleClick(int x, int y) {
-        long flaggedNeighbors = neighbors(x, y).stream()
-                                    .filter(c -> c.flag)
-                                    .count();
-        // Only do this if there is a correct number of flags
-        if (flaggedNeighbors == cells[y][x].adjacent) {
-            revealNeighbors(x, y);
+    private void cellsRevealed(IntList revealed) {
+        if (view != null && !revealed.isEmpty()) {
+            view.cellsRevealed(revealed);
+        }
+        if (isInProgress() && board.getState() == Board.State.LOST) {
+            gameOver(false);
+        } else if (isInProgress() && board.getState() == Board.State.WON) {
+            gameOver(true);
+        } else if (!revealed.isEmpty()) {
+            analyze();
         }
     }
     
-    private List<Cell> neighbors(int x, int y) {
-        int width = cells[0].length;
-        int height = cells.length;
-        var neighbors = new LinkedList<Cell>();
-        
-        // Make sure the index is within range
-        int startY = y > 0 ? y - 1 : 0;
-        int startX = x > 0 ? x - 1 : 0;
-        int endX = x < width - 1 ? x + 2 : width;
-        int endY = y < height - 1 ? y + 2 : height;
-        
-        
-        for (int tmpY = startY; tmpY < endY; tmpY++) {
-            for (int tmpX = startX; tmpX < endX; tmpX++) {
-                if (!((tmpX == x) && (tmpY == y))) {
-                    neighbors.add(cells[tmpY][tmpX]);
-                }
-            }
+    public void toggleFlag(int x, int y) {
+        // Flags can be placed before the first click, but not after the game ended
+        var state = board.getState();
+        if (isStarting() || state == Board.State.WON || state == Board.State.LOST) {
+            return;
+        }
+        record(Replay.FLAG, x, y);
+        boolean flag = board.toggleFlag(x, y);
+        if (view != null) {
+            view.flagChanged(x, y, flag);
         }
         
-        return neighbors;
+        // Update number of flags
+        numFlagsProperty.set(board.getNumFlags());
+        analyze();
     }
     
-    public List<CellNode> getNeighborCellNodes(int x, int y) {
-        return neighbors(x, y).stream()
-                    .map(c -> cellNodes[c.y][c.x])
-                    .collect(Collectors.toList());
+    /**
+     * Records a move of a game in progress, moves before the first click or after the end change nothing.
+     */
+    private void record(byte type, int x, int y) {
+        if (recorder != null && isInProgress()) {
+            recorder.action(type, x, y, getElapsedMillis());
+        }
     }
     
-    public void toggleFlag(int x, int y) {
-        var cell = cells[y][x];
-        cell.flag = !cell.flag;
-        cellNodes[y][x].setFlag(cell.flag);
-        
-        // Update number of flags
-        numFlagsProperty.set(numFlagsProperty.get() + (cell.flag ? +1 : -1));
+    /**
+     * Hands a snapshot of the board to the analysis service, the move itself does not wait for it.
+     */
+    private void analyze() {
+        if (analysisService != null && isInProgress()) {
+            analysisService.submit(board.snapshot(), this::analysisDone);
+        }
+    }
+    
+    private void analysisDone(Analysis analysis) {
+        if (view != null && isInProgress()) {
+            view.hintsChanged(analysis.probabilities);
+        }
     }
     
     private void gameOver(boolean win) {
         // Stop counting seconds
-        timeline.stop();
-        gameInProgress = false;
+        endNanos = System.nanoTime();
+        inProgressProperty.set(false);
+        if (recorder != null) {
+            recorder.gameEnded(win, getElapsedMillis());
+        }
+        if (analysisService != null) {
+            analysisService.cancel();
+            if (view != null) {
+                view.hintsChanged(null);
+            }
+        }
         if (onGameOver != null) {
-            onGameOver.accept(new GameOverArgs(win, timeProperty.intValue(), difficulty));
+            onGameOver.accept(new GameOverArgs(win, getElapsedMillis(), difficulty));
         }
     }
     
-    public boolean isInProgress() {
-        return gameInProgress;
+    /**
+     * Returns {@code true} once the first click has placed the mines.
+     */
+    public boolean isStarted() {
+        return board.getState() != Board.State.NOT_STARTED;
     }
     
-    private static class Cell {
-        public int adjacent;
-        public boolean flag;
-        public boolean isMine;
-        public boolean revealed;
-        public int x;
-        public int y;
+    public boolean isInProgress() {
+        return inProgressProperty.get();
     }
 
 }
@@ -3,12 +3,13 @@ package rada.jfxmines;
 public class GameOverArgs {
     
     public final boolean win;
-    public final int timeSeconds;
+    // Duration of the game in milliseconds
+    public final long timeMillis;
     public final Difficulty difficulty;
     
-    public GameOverArgs(boolean win, int timeSeconds, Difficulty difficulty) {
+    public GameOverArgs(boolean win, long timeMillis, Difficulty difficulty) {
         this.win = win;
-        this.timeSeconds = timeSeconds;
+        this.timeMillis = timeMillis;
         this.difficulty = difficulty;
     }
 }
@@ -0,0 +1,249 @@
+package rada.jfxmines;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Insets;
+import javafx.scene.Node;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.GridPane;
+
+/**
+ * Minefield made of one {@link CellNode} per cell laid out in a grid.
+ * Suitable for small boards, every cell is a separate part of the scene graph.
+ * Mouse input is handled by the minefield itself, events are mapped to the cell they hit,
+ * so the cells carry no handlers of their own.
+ * <p>
+ * Revealed cells are not updated right away. They are collected and applied
+ * once per frame, so a large opening changes the scene graph in one go.
+ * <p>
+ * The minefield can be reused for further games, see {@link #setGame(Game)}.
+ * @author rada
+ *
+ */
+public class GridMinefield extends GridPane implements IMinefieldView {
+    private Game game;
+    // Indexed [y][x], may be larger than the current board
+    private CellNode[][] cellNodes;
+    // Size of the board whose cells are currently in the grid
+    private int shownWidth;
+    private int shownHeight;
+    // Revealed cells waiting for the next frame
+    private final IntList pendingReveals;
+    private final AnimationTimer revealTimer;
+    // Cell whose neighbors are highlighted during a middle click, -1 if none
+    private int focusX = -1;
+    private int focusY = -1;
+    
+    public GridMinefield(Game game) {
+        cellNodes = new CellNode[0][0];
+        setPadding(new Insets(10));
+        getStylesheets().add(GridMinefield.class.getResource("/minefield.css").toExternalForm());
+        
+        pendingReveals = new IntList();
+        revealTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                applyReveals();
+            }
+        };
+        
+        // Handlers rather than filters, so that the game over filter set by App blocks them
+        addEventHandler(MouseEvent.MOUSE_PRESSED, e -> onMousePressed(e));
+        addEventHandler(MouseEvent.MOUSE_RELEASED, e -> setFocus(-1, -1));
+        addEventHandler(MouseEvent.MOUSE_EXITED_TARGET, e -> onMouseExited(e));
+        addEventHandler(MouseEvent.MOUSE_CLICKED, e -> onMouseClicked(e));
+        
+        setPrefWidth(Double.MAX_VALUE);
+        setGame(game);
+    }
+    
+    /**
+     * Shows a new game. Cell nodes of the previous game are reset and reused,
+     * new nodes are only created for cells outside of every board shown so far.
+     * Cells outside of the new board are taken out of the grid but kept for later.
+     * @param game the new game, the caller has to set this minefield as its view
+     */
+    public void setGame(Game game) {
+        this.game = game;
+        pendingReveals.clear();
+        revealTimer.stop();
+        focusX = -1;
+        focusY = -1;
+        
+        var board = game.getBoard();
+        int h = board.getHeight();
+        int w = board.getWidth();
+        int capacityWidth = cellNodes.length > 0 ? cellNodes[0].length : 0;
+        if (h > cellNodes.length || w > capacityWidth) {
+            var grown = new CellNode[Math.max(h, cellNodes.length)][Math.max(w, capacityWidth)];
+            for (int y = 0; y < cellNodes.length; y++) {
+                System.arraycopy(cellNodes[y], 0, grown[y], 0, cellNodes[y].length);
+            }
+            cellNodes = grown;
+        }
+        
+        getChildren().removeIf(node -> GridPane.getColumnIndex(node) >= w || GridPane.getRowIndex(node) >= h);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                var cell = cellNodes[y][x];
+                if (cell == null) {
+                    cell = new CellNode(x, y);
+                    cellNodes[y][x] = cell;
+                    GridPane.setFillHeight(cell, true);
+                    GridPane.setFillWidth(cell, true);
+                } else {
+                    cell.reset();
+                }
+                if (x >= shownWidth || y >= shownHeight) {
+                    add(cell, x, y);
+                }
+            }
+        }
+        shownWidth = w;
+        shownHeight = h;
+    }
+    
+    @Override
+    public void boardStarted() {
+        // Cells are filled in when they are revealed
+    }
+    
+    @Override
+    public void cellsRevealed(IntList revealed) {
+        if (pendingReveals.isEmpty()) {
+            revealTimer.start();
+        }
+        // The list is only valid during the call
+        for (int j = 0; j < revealed.size(); j++) {
+            pendingReveals.add(revealed.get(j));
+        }
+    }
+    
+    /**
+     * Shows the cells revealed since the last frame, labels are filled in only now.
+     */
+    private void applyReveals() {
+        var board = game.getBoard();
+        int width = board.getWidth();
+        for (int j = 0; j < pendingReveals.size(); j++) {
+            int i = pendingReveals.get(j);
+            int x = i % width;
+            int y = i / width;
+            var cell = cellNodes[y][x];
+            cell.setAdjacent(board.getAdjacent(x, y));
+            cell.setMine(board.isMine(x, y));
+            cell.reveal();
+        }
+        pendingReveals.clear();
+        revealTimer.stop();
+    }
+    
+    @Override
+    public void flagChanged(int x, int y, boolean flag) {
+        cellNodes[y][x].setFlag(flag);
+    }
+    
+    @Override
+    public void hintsChanged(double[] probabilities) {
+        var board = game.getBoard();
+        int width = board.getWidth();
+        for (int y = 0; y < board.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                boolean hidden = probabilities == null || board.isRevealed(x, y);
+                cellNodes[y][x].setHint(hidden ? Double.NaN : probabilities[y * width + x]);
+            }
+        }
+    }
+    
+    /**
+     * Returns the cell containing the node an event was sent to, or {@code null}.
+     */
+    private CellNode cellOf(MouseEvent e) {
+        var node = e.getTarget() instanceof Node ? (Node) e.getTarget() : null;
+        while (node != null && node != this) {
+            if (node instanceof CellNode) {
+                return (CellNode) node;
+            }
+            node = node.getParent();
+        }
+        return null;
+    }
+    
+    private void onMousePressed(MouseEvent e) {
+        var cell = cellOf(e);
+        // Either middle button or both left and right button
+        if (cell != null && game.getBoard().isRevealed(cell.getCellX(), cell.getCellY())
+                && (e.isMiddleButtonDown() || (e.isPrimaryButtonDown() && e.isSecondaryButtonDown()))) {
+            setFocus(cell.getCellX(), cell.getCellY());
+        }
+    }
+    
+    private void onMouseExited(MouseEvent e) {
+        var cell = cellOf(e);
+        // Unfocus neighbors when mouse exits the focused cell
+        if (cell != null && cell.getCellX() == focusX && cell.getCellY() == focusY) {
+            setFocus(-1, -1);
+        }
+    }
+    
+    private void onMouseClicked(MouseEvent e) {
+        var cell = cellOf(e);
+        if (cell == null) {
+            return;
+        }
+        int x = cell.getCellX();
+        int y = cell.getCellY();
+        
+        if (game.getBoard().isRevealed(x, y)) {
+            // One of either left or right button is still down, cell was clicked with both buttons
+            // Or middle button was used
+            if (e.isPrimaryButtonDown() || e.isSecondaryButtonDown() || e.getButton() == MouseButton.MIDDLE) {
+                game.middleClick(x, y);
+            }
+            return;
+        }
+        
+        // Cell was clicked with both buttons
+        // Do nothing
+        if (e.isPrimaryButtonDown() || e.isSecondaryButtonDown()) {
+            return;
+        }
+        
+        if (e.getButton() == MouseButton.PRIMARY) {
+            if (!game.isStarted()) {
+                game.start(x, y);
+            } else {
+                game.reveal(x, y);
+            }
+        } else if (e.getButton() == MouseButton.SECONDARY) {
+            game.toggleFlag(x, y);
+        }
+    }
+    
+    /**
+     * Highlights the unrevealed neighbors of the given cell and removes the previous highlight.
+     * @param x x-coordinate of cell, -1 to remove the highlight
+     * @param y y-coordinate of cell, -1 to remove the highlight
+     */
+    private void setFocus(int x, int y) {
+        if (x == focusX && y == focusY) {
+            return;
+        }
+        setNeighborHighlight(focusX, focusY, false);
+        focusX = x;
+        focusY = y;
+        setNeighborHighlight(x, y, true);
+    }
+    
+    private void setNeighborHighlight(int x, int y, boolean highlight) {
+        if (x < 0 || y < 0) {
+            return;
+        }
+        var board = game.getBoard();
+        for (int tmpY = Math.max(y - 1, 0); tmpY <= Math.min(y + 1, board.getHeight() - 1); tmpY++) {
+            for (int tmpX = Math.max(x - 1, 0); tmpX <= Math.min(x + 1, board.getWidth() - 1); tmpX++) {
+                cellNodes[tmpY][tmpX].setHighlight(highlight);
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package rada.jfxmines;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores highscores in an embedded H2 database.
+ * <p>
+ * Every score is one row indexed by difficulty and time, so the best entries, a page of entries
+ * or the rank of a time are answered by the database without reading the other scores.
+ * Scores with the same time are ordered by the time they were achieved, which is stored with them.
+ * <p>
+ * The database runs inside the application, it is a single file next to the other highscore files.
+ * The connection is opened on first use and kept until {@link #close()}, the first use of a new database
+ * also imports the legacy storage. Wrapped in a {@link HighscoreWriteBehindStorage}, that first use is
+ * the load on its writer thread, so neither runs on the caller of a query.
+ * @author rada
+ *
+ */
+public class HighscoreDatabaseStorage implements IHighscoreStorage {
+    // H2 adds the extension to the name of the database
+    private static final String FILE_EXTENSION = ".mv.db";
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS highscore ("
+                    + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                    + "difficulty VARCHAR(32) NOT NULL, "
+                    + "name VARCHAR NOT NULL, "
+                    + "time_ms BIGINT NOT NULL, "
+                    + "achieved_ms BIGINT NOT NULL DEFAULT 0)",
+            // Databases of older versions have no achievement time, their scores keep ties in the order of the ids
+            "ALTER TABLE highscore ADD COLUMN IF NOT EXISTS achieved_ms BIGINT NOT NULL DEFAULT 0",
+            "DROP INDEX IF EXISTS highscore_time",
+            // Ties are ordered by when the scores were achieved, the id keeps equal ones in order without sorting
+            "CREATE INDEX IF NOT EXISTS highscore_rank ON highscore (difficulty, time_ms, achieved_ms, id)",
+            // Starts with the name, otherwise the planner may pick it for queries by difficulty alone
+            "CREATE INDEX IF NOT EXISTS highscore_name ON highscore (name, difficulty, time_ms)"
+    };
+    private static final String INSERT = "INSERT INTO highscore (difficulty, name, time_ms, achieved_ms) VALUES (?, ?, ?, ?)";
+
+    private final Path path;
+    private final IHighscoreStorage legacy;
+    private Connection connection;
+
+    /**
+     * @param filename name of the database without extension
+     * @param legacy storage imported when the database does not exist yet, or {@code null}
+     */
+    public HighscoreDatabaseStorage(String filename, IHighscoreStorage legacy) {
+        this.path = Path.of(filename).toAbsolutePath();
+        this.legacy = legacy;
+    }
+
+    @Override
+    public synchronized Map<Difficulty, List<HighscoreEntry>> load() {
+        var map = new HashMap<Difficulty, List<HighscoreEntry>>();
+        for (var difficulty : List.of(Difficulty.getEasy(), Difficulty.getMedium(), Difficulty.getHard())) {
+            map.put(difficulty, new LinkedList<HighscoreEntry>());
+        }
+        try (var statement = connection().prepareStatement(
+                "SELECT difficulty, name, time_ms, achieved_ms FROM highscore ORDER BY difficulty, time_ms, achieved_ms, id");
+                var result = statement.executeQuery()) {
+            while (result.next()) {
+                var difficulty = HighscoreFileStorage.difficultyOf(result.getString(1));
+                if (difficulty != null) {
+                    map.computeIfAbsent(difficulty, key -> new LinkedList<HighscoreEntry>())
+                            .add(new HighscoreEntry(result.getString(2), result.getLong(3), result.getLong(4)));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return map;
+    }
+
+    @Override
+    public synchronized boolean save(Map<Difficulty, List<HighscoreEntry>> highscores) {
+        return insertAll(highscores, true);
+    }
+
+    @Override
+    public synchronized boolean addAll(Map<Difficulty, List<HighscoreEntry>> entries) {
+        return insertAll(entries, false);
+    }
+
+    /**
+     * Inserts entries in one transaction.
+     * @param replace {@code true} to delete all other entries
+     */
+    private boolean insertAll(Map<Difficulty, List<HighscoreEntry>> entries, boolean replace) {
+        try {
+            var connection = connection();
+            connection.setAutoCommit(false);
+            try (var delete = connection.createStatement();
+                    var insert = connection.prepareStatement(INSERT)) {
+                if (replace) {
+                    delete.executeUpdate("DELETE FROM highscore");
+                }
+                for (var mapEntry : entries.entrySet()) {
+                    for (var entry : mapEntry.getValue()) {
+                        bind(insert, mapEntry.getKey(), entry);
+                        insert.addBatch();
+                    }
+                }
+                insert.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean add(Map<Difficulty, List<HighscoreEntry>> highscores, Difficulty difficulty, HighscoreEntry entry) {
+        return add(difficulty, entry);
+    }
+
+    @Override
+    public synchronized boolean add(Difficulty difficulty, HighscoreEntry entry) {
+        try (var insert = connection().prepareStatement(INSERT)) {
+            bind(insert, difficulty, entry);
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public List<HighscoreEntry> top(Difficulty difficulty, int limit) {
+        return page(difficulty, null, 0, limit);
+    }
+
+    @Override
+    public List<HighscoreEntry> page(Difficulty difficulty, int offset, int limit) {
+        return page(difficulty, null, offset, limit);
+    }
+
+    @Override
+    public synchronized List<HighscoreEntry> page(Difficulty difficulty, String namePrefix, int offset, int limit) {
+        boolean filtered = namePrefix != null && !namePrefix.isEmpty();
+        var list = new ArrayList<HighscoreEntry>();
+        try (var statement = connection().prepareStatement(filtered
+                ? "SELECT name, time_ms, achieved_ms FROM highscore WHERE difficulty = ? AND name LIKE ? ESCAPE '\\' "
+                        + "ORDER BY time_ms, achieved_ms, id LIMIT ? OFFSET ?"
+                : "SELECT name, time_ms, achieved_ms FROM highscore WHERE difficulty = ? "
+                        // Ordered exactly like the index, so H2 reads it in order instead of sorting all rows
+                        + "ORDER BY difficulty, time_ms, achieved_ms, id LIMIT ? OFFSET ?")) {
+            int parameter = 1;
+            statement.setString(parameter++, HighscoreFileStorage.difficultyName(difficulty));
+            if (filtered) {
+                statement.setString(parameter++, likePrefix(namePrefix));
+            }
+            statement.setInt(parameter++, limit);
+            statement.setInt(parameter++, offset);
+            try (var result = statement.executeQuery()) {
+                while (result.next()) {
+                    list.add(new HighscoreEntry(result.getString(1), result.getLong(2), result.getLong(3)));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return list;
+    }
+
+    @Override
+    public int count(Difficulty difficulty) {
+        return count(difficulty, null);
+    }
+
+    @Override
+    public synchronized int count(Difficulty difficulty, String namePrefix) {
+        boolean filtered = namePrefix != null && !namePrefix.isEmpty();
+        try (var statement = connection().prepareStatement(filtered
+                ? "SELECT COUNT(*) FROM highscore WHERE difficulty = ? AND name LIKE ? ESCAPE '\\'"
+                : "SELECT COUNT(*) FROM highscore WHERE difficulty = ?")) {
+            statement.setString(1, HighscoreFileStorage.difficultyName(difficulty));
+            if (filtered) {
+                statement.setString(2, likePrefix(namePrefix));
+            }
+            return queryInt(statement);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized int rank(Difficulty difficulty, long time) {
+        try (var statement = connection().prepareStatement(
+                "SELECT COUNT(*) FROM highscore WHERE difficulty = ? AND time_ms <= ?")) {
+            statement.setString(1, HighscoreFileStorage.difficultyName(difficulty));
+            statement.setLong(2, time);
+            return queryInt(statement);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized HighscoreEntry best(Difficulty difficulty, String name) {
+        try (var statement = connection().prepareStatement(
+                "SELECT name, time_ms, achieved_ms FROM highscore WHERE difficulty = ? AND name = ? "
+                        + "ORDER BY time_ms, achieved_ms, id LIMIT 1")) {
+            statement.setString(1, HighscoreFileStorage.difficultyName(difficulty));
+            statement.setString(2, name);
+            try (var result = statement.executeQuery()) {
+                return result.next() ? new HighscoreEntry(result.getString(1), result.getLong(2), result.getLong(3)) : null;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized List<Difficulty> difficulties() {
+        var list = new ArrayList<Difficulty>();
+        try (var statement = connection().prepareStatement("SELECT DISTINCT difficulty FROM highscore");
+                var result = statement.executeQuery()) {
+            while (result.next()) {
+                var difficulty = HighscoreFileStorage.difficultyOf(result.getString(1));
+                if (difficulty != null) {
+                    list.add(difficulty);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        connection = null;
+    }
+
+    /**
+     * Opens the database on first use, creates the table and imports the legacy storage.
+     */
+    private Connection connection() throws SQLException {
+        if (connection != null) {
+            return connection;
+        }
+        boolean created = !Files.exists(Path.of(path + FILE_EXTENSION));
+        connection = DriverManager.getConnection("jdbc:h2:file:" + path);
+        try (var statement = connection.createStatement()) {
+            for (var sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        }
+        if (created && legacy != null) {
+            save(legacy.load());
+        }
+        return connection;
+    }
+
+    /**
+     * Sets the parameters of {@link #INSERT}.
+     */
+    private static void bind(PreparedStatement insert, Difficulty difficulty, HighscoreEntry entry) throws SQLException {
+        insert.setString(1, HighscoreFileStorage.difficultyName(difficulty));
+        insert.setString(2, entry.getName());
+        insert.setLong(3, entry.getTime());
+        insert.setLong(4, entry.getAchieved());
+    }
+
+    /**
+     * Returns a LIKE pattern matching names that start with the prefix.
+     */
+    private static String likePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    private static int queryInt(PreparedStatement statement) throws SQLException {
+        try (var result = statement.executeQuery()) {
+            return result.next() ? result.getInt(1) : 0;
+        }
+    }
+}
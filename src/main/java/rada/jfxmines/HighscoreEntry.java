@@ -3,30 +3,59 @@ package rada.jfxmines;
 
 import java.util.Comparator;
 
-import javafx.beans.property.IntegerProperty;
-import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 
 public class HighscoreEntry {
-    private IntegerProperty timeProperty;
+    // Time in milliseconds
+    private LongProperty timeProperty;
     private StringProperty nameProperty;
+    // Wall clock time the score was achieved in epoch milliseconds, 0 if unknown
+    private final long achieved;
+    // Ties are broken by the time they were achieved, the earlier entry goes first
     public static final Comparator<HighscoreEntry> 
-        TIME_COMPARATOR = (a, b) -> Integer.compare(a.getTime(), b.getTime());
+        TIME_COMPARATOR = Comparator.comparingLong(HighscoreEntry::getTime).thenComparingLong(HighscoreEntry::getAchieved);
     
-    public HighscoreEntry(String name, int time) {
-        this.timeProperty = new SimpleIntegerProperty(time);
+    /**
+     * Creates an entry achieved just now.
+     * @param name name of the player
+     * @param time time in milliseconds
+     */
+    public HighscoreEntry(String name, long time) {
+        this(name, time, System.currentTimeMillis());
+    }
+    
+    /**
+     * @param name name of the player
+     * @param time time in milliseconds
+     * @param achieved when the score was achieved in epoch milliseconds, 0 if unknown
+     */
+    public HighscoreEntry(String name, long time, long achieved) {
+        this.timeProperty = new SimpleLongProperty(time);
         this.nameProperty = new SimpleStringProperty(name);
+        this.achieved = achieved;
     }
     
-    public int getTime() {
+    /**
+     * Returns the time in milliseconds.
+     */
+    public long getTime() {
         return timeProperty.get();
     }
     
-    public void setTime(int time) {
+    public void setTime(long time) {
         this.timeProperty.set(time);
     }
     
+    /**
+     * Returns when the score was achieved in epoch milliseconds, 0 for entries of older files that did not store it.
+     */
+    public long getAchieved() {
+        return achieved;
+    }
+    
     public String getName() {
         return nameProperty.get();
     }
@@ -37,7 +66,8 @@ public class HighscoreEntry {
     
     
     public String getFormatedTime() {
-        return String.format("%02d:%02d", timeProperty.get() / 60, timeProperty.get() % 60);
+        long time = timeProperty.get();
+        return String.format("%02d:%02d.%03d", time / 60_000, time / 1000 % 60, time % 1000);
     }
 
     
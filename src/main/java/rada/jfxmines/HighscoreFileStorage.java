@@ -6,6 +6,7 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,6 +16,9 @@ import java.util.Optional;
 
 /**
  * Stores highscores in a CSV file
+ * Times are written in seconds with three decimal places, followed by the time the score was achieved
+ * in epoch milliseconds. Files from older versions with whole seconds or without that field are still read.
+ * Custom difficulties are stored as {@code WIDTHxHEIGHTxMINES}.
  * @author rada
  *
  */
@@ -49,7 +53,7 @@ public class HighscoreFileStorage implements IHighscoreStorage {
                     System.err.println("Invalid line: " + line);
                     continue;
                 }
-                map.get(pair.x).add(pair.y);
+                map.computeIfAbsent(pair.x, difficulty -> new LinkedList<HighscoreEntry>()).add(pair.y);
             }
         } catch (IOException e) {
             return map;
@@ -75,48 +79,81 @@ public class HighscoreFileStorage implements IHighscoreStorage {
         } catch (IOException e) {
             return false;
         }
-        return false;
+        return true;
     }
     
-    private Pair<Difficulty, HighscoreEntry> lineToEntry(String line) {
+    // Package-private, the line format is shared with HighscoreLogStorage
+    static Pair<Difficulty, HighscoreEntry> lineToEntry(String line) {
         String[] split = line.split(separator + "");
         
         try {
-            Difficulty difficulty = difficutlyTable.get(split[0]);
+            Difficulty difficulty = difficultyOf(split[0]);
             if (difficulty == null) {
                 return null;
             }
             String name = split[1];
-            int time = Integer.parseInt(split[2]);
+            // Whole seconds in older files, the decimal point is optional
+            long time = new BigDecimal(split[2]).movePointRight(3).longValueExact();
             
             if (time < 0) {
                 return null;
             }
+            // Older files do not store when the score was achieved
+            long achieved = split.length > 3 ? Long.parseLong(split[3]) : 0;
             
-            return new Pair<Difficulty, HighscoreEntry>(difficulty, new HighscoreEntry(name, time));
+            return new Pair<Difficulty, HighscoreEntry>(difficulty, new HighscoreEntry(name, time, achieved));
         } catch (Exception e) {
             return null;
         }
         
     }
     
-    private String entryToLine( Difficulty difficulty, HighscoreEntry entry) {
+    /**
+     * Returns the name under which a difficulty is stored.
+     */
+    static String difficultyName(Difficulty difficulty) {
         // Find a key whose value is equal to difficulty
         // Ideally, this would be done using a bi-directional map collection
         // But this is good enough for our purposes 
         Optional<String> diffString = difficutlyTable.entrySet()
                                             .stream()
-                                            .filter(e -> e.getValue() == difficulty)
+                                            .filter(e -> e.getValue().equals(difficulty))
                                             .map(e -> e.getKey())
                                             .findFirst();
-        
-        if (!diffString.isPresent()) {
+        return diffString.orElse(difficulty.getWidth() + "x" + difficulty.getHeight() + "x" + difficulty.getNumMines());
+    }
+    
+    /**
+     * Returns the difficulty stored under a name, {@code null} if there is none.
+     */
+    static Difficulty difficultyOf(String name) {
+        var difficulty = difficutlyTable.get(name);
+        if (difficulty != null) {
+            return difficulty;
+        }
+        var split = name.split("x");
+        if (split.length != 3) {
+            return null;
+        }
+        try {
+            return Difficulty.getCustom(Integer.parseInt(split[0]), Integer.parseInt(split[1]), Integer.parseInt(split[2]));
+        } catch (IllegalArgumentException e) {
+            // Also thrown for numbers that cannot be parsed
+            return null;
+        }
+    }
+    
+    static String entryToLine( Difficulty difficulty, HighscoreEntry entry) {
+        var diffString = difficultyName(difficulty);
+        if (diffString == null) {
             return null;
         }
         
         // Remove separator from name
         var name = entry.getName().replaceAll(separator + "", "");
         
-        return String.format("%s%c%s%c%d", diffString.get(), separator, name, separator, entry.getTime());
+        long time = entry.getTime();
+        return String.format("%s%c%s%c%d.%03d%c%d", diffString, separator, name, separator, time / 1000, time % 1000,
+                separator, entry.getAchieved());
     }
 }
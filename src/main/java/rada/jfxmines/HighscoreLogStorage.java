@@ -0,0 +1,371 @@
+package rada.jfxmines;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Stores highscores in an append-only log.
+ * <p>
+ * Every new score is one line appended to the file and forced to disk, so saving a score
+ * costs the same no matter how many scores there are. Lines have the format of
+ * {@link HighscoreFileStorage} followed by a CRC-32 of the line. A line that was only
+ * partly written before a crash fails the check and is skipped on load.
+ * <p>
+ * Scores that dropped out of the highscores stay in the log until it is compacted.
+ * Compaction writes the current highscores into a temporary file and renames it over the log,
+ * so at any moment either the old or the new log is complete. It runs in the background
+ * once the log holds many more lines than there are highscores, which needs a bound on the retained entries.
+ * <p>
+ * The game keeps its highscores in {@link HighscoreDatabaseStorage}, a log left by an older version
+ * is only read once and imported into the database.
+ * <p>
+ * The loaded highscores are kept in a {@link Leaderboard} per difficulty,
+ * queries and new scores do not read the file again.
+ * @author rada
+ *
+ */
+public class HighscoreLogStorage implements IHighscoreStorage {
+    private static final char SEPARATOR = ';';
+    // Compact once the log has this many lines more than twice the number of highscores
+    private static final int COMPACTION_SLACK = 64;
+    // How long close() waits for a running compaction
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+    // Entries kept for every difficulty by default, as many as the game lets into its highscores
+    private static final int DEFAULT_RETAINED = 10;
+    private static final List<Difficulty> DIFFICULTIES = List.of(Difficulty.getEasy(), Difficulty.getMedium(), Difficulty.getHard());
+
+    private final Path path;
+    private final Path tempPath;
+    private final IHighscoreStorage legacy;
+    private final ExecutorService compactor;
+    private final int retained;
+    // Highscores in the log, null until loaded
+    private Map<Difficulty, Leaderboard> boards;
+    private FileChannel channel;
+    // Valid lines in the log
+    private int lines;
+    // Incremented by every append, an outdated compaction would lose the newer lines
+    private long appends;
+
+    /**
+     * Keeps the {@value #DEFAULT_RETAINED} best entries of every difficulty.
+     * @param filename name of the log file
+     * @param legacy storage imported when the log does not exist yet, or {@code null}
+     */
+    public HighscoreLogStorage(String filename, IHighscoreStorage legacy) {
+        this(filename, legacy, DEFAULT_RETAINED);
+    }
+
+    /**
+     * @param filename name of the log file
+     * @param legacy storage imported when the log does not exist yet, or {@code null}
+     * @param retained number of best entries kept for every difficulty
+     */
+    public HighscoreLogStorage(String filename, IHighscoreStorage legacy, int retained) {
+        this.path = Path.of(filename);
+        this.retained = retained;
+        this.tempPath = Path.of(filename + ".tmp");
+        this.legacy = legacy;
+        compactor = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "highscore-compaction");
+            // Must not keep the application running
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public synchronized Map<Difficulty, List<HighscoreEntry>> load() {
+        if (!Files.exists(path) && legacy != null) {
+            boards = toBoards(legacy.load());
+            compact(snapshot());
+            return snapshot();
+        }
+
+        var map = new HashMap<Difficulty, List<HighscoreEntry>>();
+        for (var difficulty : DIFFICULTIES) {
+            map.put(difficulty, new ArrayList<HighscoreEntry>());
+        }
+        lines = 0;
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            boards = toBoards(map);
+            return snapshot();
+        }
+
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            var pair = parse(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+            if (pair != null) {
+                map.computeIfAbsent(pair.x, difficulty -> new ArrayList<HighscoreEntry>()).add(pair.y);
+                lines++;
+            } else {
+                System.err.println("Skipping damaged highscore record at byte " + start);
+            }
+            start = i + 1;
+        }
+
+        if (start < bytes.length) {
+            // Torn tail without a line break, cut it off so that the next record starts on a new line
+            System.err.println("Dropping incomplete highscore record at byte " + start);
+            try (var truncate = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncate.truncate(start);
+                truncate.force(true);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        // Lines are in the order they were added, so ties keep that order
+        boards = toBoards(map);
+        return snapshot();
+    }
+
+    @Override
+    public synchronized boolean save(Map<Difficulty, List<HighscoreEntry>> highscores) {
+        boards = toBoards(highscores);
+        return compact(snapshot());
+    }
+
+    @Override
+    public boolean add(Map<Difficulty, List<HighscoreEntry>> highscores, Difficulty difficulty, HighscoreEntry entry) {
+        return add(difficulty, entry);
+    }
+
+    @Override
+    public boolean add(Difficulty difficulty, HighscoreEntry entry) {
+        return addAll(Map.of(difficulty, List.of(entry)));
+    }
+
+    /**
+     * Appends all entries with a single write, they become durable together.
+     */
+    @Override
+    public synchronized boolean addAll(Map<Difficulty, List<HighscoreEntry>> entries) {
+        int added = 0;
+        var builder = new StringBuilder();
+        for (var mapEntry : entries.entrySet()) {
+            var board = boards().computeIfAbsent(mapEntry.getKey(), difficulty -> new Leaderboard(retained));
+            for (var entry : mapEntry.getValue()) {
+                if (board.add(entry) >= 0) {
+                    // Entries worse than every retained one are not written, the next compaction would drop them anyway
+                    builder.append(withChecksum(HighscoreFileStorage.entryToLine(mapEntry.getKey(), entry)));
+                    added++;
+                }
+            }
+        }
+        if (added == 0) {
+            return true;
+        }
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            var buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeChannel();
+            return false;
+        }
+        lines += added;
+        appends++;
+
+        int live = boards.values().stream().mapToInt(Leaderboard::size).sum();
+        // No new compaction once the storage is closed
+        if (lines > 2 * live + COMPACTION_SLACK && !compactor.isShutdown()) {
+            // Copied here, the leaderboards keep changing
+            var copy = snapshot();
+            long snapshot = appends;
+            compactor.execute(() -> compactIfCurrent(copy, snapshot));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized List<HighscoreEntry> top(Difficulty difficulty, int limit) {
+        return page(difficulty, 0, limit);
+    }
+
+    @Override
+    public synchronized List<HighscoreEntry> page(Difficulty difficulty, int offset, int limit) {
+        var board = boards().get(difficulty);
+        return board == null ? List.of() : board.page(offset, limit);
+    }
+
+    @Override
+    public synchronized int count(Difficulty difficulty) {
+        var board = boards().get(difficulty);
+        return board == null ? 0 : board.size();
+    }
+
+    @Override
+    public synchronized int rank(Difficulty difficulty, long time) {
+        var board = boards().get(difficulty);
+        return board == null ? 0 : board.rank(time);
+    }
+
+    /**
+     * Waits for a running compaction and closes the log file.
+     * Waits at most {@value #CLOSE_TIMEOUT_SECONDS} seconds.
+     */
+    @Override
+    public void close() {
+        // Not synchronized, the compaction needs the lock to finish
+        compactor.shutdown();
+        try {
+            if (!compactor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Highscore compaction did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeChannel();
+        }
+    }
+
+    private Map<Difficulty, Leaderboard> boards() {
+        if (boards == null) {
+            load();
+        }
+        return boards;
+    }
+
+    private Map<Difficulty, Leaderboard> toBoards(Map<Difficulty, List<HighscoreEntry>> highscores) {
+        var map = new HashMap<Difficulty, Leaderboard>();
+        for (var difficulty : DIFFICULTIES) {
+            map.put(difficulty, new Leaderboard(retained));
+        }
+        highscores.forEach((difficulty, entries) -> map.put(difficulty, Leaderboard.of(entries, retained)));
+        return map;
+    }
+
+    /**
+     * Returns the retained highscores in new lists, best first.
+     */
+    private Map<Difficulty, List<HighscoreEntry>> snapshot() {
+        var map = new HashMap<Difficulty, List<HighscoreEntry>>();
+        boards.forEach((difficulty, board) -> map.put(difficulty, board.toList()));
+        return map;
+    }
+
+    /**
+     * Compacts the log unless records were appended after the highscores were copied.
+     * The next append schedules another compaction in that case.
+     */
+    private synchronized void compactIfCurrent(Map<Difficulty, List<HighscoreEntry>> highscores, long snapshot) {
+        if (snapshot == appends) {
+            compact(highscores);
+        }
+    }
+
+    /**
+     * Replaces the log with the given highscores.
+     */
+    private boolean compact(Map<Difficulty, List<HighscoreEntry>> highscores) {
+        int written = 0;
+        try (var temp = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var builder = new StringBuilder();
+            for (var mapEntry : highscores.entrySet()) {
+                for (var entry : mapEntry.getValue()) {
+                    var line = HighscoreFileStorage.entryToLine(mapEntry.getKey(), entry);
+                    if (line != null) {
+                        builder.append(withChecksum(line));
+                        written++;
+                    }
+                }
+            }
+            var buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                temp.write(buffer);
+            }
+            temp.force(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        // The open channel still points to the old file
+        closeChannel();
+        try {
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        syncDirectory();
+        lines = written;
+        return true;
+    }
+
+    /**
+     * Makes the rename durable. Not every platform can open a directory, this is best effort.
+     */
+    private void syncDirectory() {
+        var directory = path.toAbsolutePath().getParent();
+        try (var dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Ignored, the rename is still atomic
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    private static String withChecksum(String line) {
+        var crc = new CRC32();
+        crc.update(line.getBytes(StandardCharsets.UTF_8));
+        return line + SEPARATOR + Long.toHexString(crc.getValue()) + '\n';
+    }
+
+    /**
+     * Parses a line without its line break.
+     * @return difficulty and entry, or {@code null} if the line is damaged
+     */
+    private static Pair<Difficulty, HighscoreEntry> parse(String record) {
+        int split = record.lastIndexOf(SEPARATOR);
+        if (split < 0) {
+            return null;
+        }
+        var line = record.substring(0, split);
+        var crc = new CRC32();
+        crc.update(line.getBytes(StandardCharsets.UTF_8));
+        if (!Long.toHexString(crc.getValue()).equals(record.substring(split + 1))) {
+            return null;
+        }
+        return HighscoreFileStorage.lineToEntry(line);
+    }
+}
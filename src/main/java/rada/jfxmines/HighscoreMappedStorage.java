@@ -0,0 +1,414 @@
+package rada.jfxmines;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores highscores in a binary file that is read through a memory mapping.
+ * <p>
+ * The file starts with a header holding the number of entries of every difficulty.
+ * The entries follow as fixed-width records, one section per difficulty, each sorted by time.
+ * The sections are their own index: the best entries of a difficulty are the first records
+ * of its section and any entry can be read by its position without parsing the rest.
+ * Opening the store only maps the file and reads the header.
+ * <p>
+ * Record layout, {@value #RECORD_SIZE} bytes: time in milliseconds as a long,
+ * length of the name in bytes and the name in UTF-8, cut to {@value #MAX_NAME_BYTES} bytes.
+ * <p>
+ * A new score is appended as one record after the sections, the upper bits of its length byte
+ * hold the section. The header counts the appended records, the count is written after the record,
+ * so a record torn by a crash is not counted. Appended records are kept sorted in memory and merged
+ * into the queries. Once {@value #MAX_APPENDED} of them have piled up, the store is saved again.
+ * <p>
+ * Saving writes a new file and renames it over the old one. The mapping of the old file is released first,
+ * Windows does not replace a file that is still mapped.
+ * @author rada
+ *
+ */
+public class HighscoreMappedStorage implements IHighscoreStorage {
+    private static final int MAGIC = 0x4A464D48;
+    // Version 1 had no appended records, its header holds 0 in their place
+    private static final int VERSION = 2;
+    // Order of the sections in the file
+    private static final Difficulty[] DIFFICULTIES = {
+            Difficulty.getEasy(), Difficulty.getMedium(), Difficulty.getHard()
+    };
+    private static final int HEADER_SIZE = 32;
+    // Position of the number of appended records in the header
+    private static final int APPENDED_POSITION = 8 + 3 * Integer.BYTES;
+    static final int RECORD_SIZE = 40;
+    static final int MAX_NAME_BYTES = RECORD_SIZE - Long.BYTES - 1;
+    // Names are at most 31 bytes, the length byte has 3 bits to spare for the section
+    private static final int NAME_LENGTH_MASK = 0x1F;
+    private static final int SECTION_SHIFT = 5;
+    static final int MAX_APPENDED = 1024;
+
+    private final Path path;
+    private final Path tempPath;
+    private MappedByteBuffer buffer;
+    private final int[] counts;
+    private final int[] offsets;
+    // Appended records of every section sorted by time, read when the file is opened
+    private final List<List<HighscoreEntry>> appended;
+    private int appendedCount;
+
+    public HighscoreMappedStorage(String filename) {
+        this.path = Path.of(filename);
+        this.tempPath = Path.of(filename + ".tmp");
+        counts = new int[DIFFICULTIES.length];
+        offsets = new int[DIFFICULTIES.length];
+        appended = new ArrayList<>();
+        for (int d = 0; d < DIFFICULTIES.length; d++) {
+            appended.add(new ArrayList<HighscoreEntry>());
+        }
+    }
+
+    @Override
+    public synchronized Map<Difficulty, List<HighscoreEntry>> load() {
+        var map = new HashMap<Difficulty, List<HighscoreEntry>>();
+        boolean open = open();
+        for (int d = 0; d < DIFFICULTIES.length; d++) {
+            var list = new LinkedList<HighscoreEntry>();
+            if (open) {
+                list.addAll(page(d, 0, size(d)));
+            }
+            map.put(DIFFICULTIES[d], list);
+        }
+        return map;
+    }
+
+    @Override
+    public List<HighscoreEntry> top(Difficulty difficulty, int limit) {
+        return page(difficulty, 0, limit);
+    }
+    
+    @Override
+    public synchronized List<HighscoreEntry> page(Difficulty difficulty, int offset, int limit) {
+        int d = section(difficulty);
+        if (d < 0 || !open()) {
+            return List.of();
+        }
+        return page(d, offset, limit);
+    }
+
+    /**
+     * Merges the records of a section with its appended records.
+     * Records of the section come first when times are equal, they were added earlier.
+     */
+    private List<HighscoreEntry> page(int d, int offset, int limit) {
+        if (offset >= size(d)) {
+            return List.of();
+        }
+        var extra = appended.get(d);
+        // Appended records before the page, the one at j is preceded by j appended records
+        int j = 0;
+        while (j < extra.size() && sectionRank(d, extra.get(j).getTime()) + j < offset) {
+            j++;
+        }
+        int i = offset - j;
+        int n = Math.min(limit, size(d) - offset);
+        var list = new ArrayList<HighscoreEntry>(n);
+        while (list.size() < n) {
+            if (j < extra.size() && (i >= counts[d] || buffer.getLong(offsets[d] + i * RECORD_SIZE) > extra.get(j).getTime())) {
+                list.add(extra.get(j++));
+            } else {
+                list.add(read(offsets[d] + i++ * RECORD_SIZE));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized int count(Difficulty difficulty) {
+        int d = section(difficulty);
+        return d < 0 || !open() ? 0 : size(d);
+    }
+    
+    @Override
+    public synchronized int rank(Difficulty difficulty, long time) {
+        int d = section(difficulty);
+        if (d < 0) {
+            return -1;
+        }
+        if (!open()) {
+            return 0;
+        }
+        return sectionRank(d, time) + appendedRank(appended.get(d), time);
+    }
+
+    /**
+     * Writes the entry after the last record and counts it in the header,
+     * the rest of the file stays as it is.
+     */
+    @Override
+    public synchronized boolean add(Difficulty difficulty, HighscoreEntry entry) {
+        int d = section(difficulty);
+        if (d < 0) {
+            return false;
+        }
+        if (!open() || appendedCount >= MAX_APPENDED) {
+            // Writes a new store, with the appended records moved into their sections
+            var highscores = load();
+            highscores.get(difficulty).add(entry);
+            return save(highscores);
+        }
+
+        var record = ByteBuffer.allocate(RECORD_SIZE);
+        write(record, entry);
+        record.put(Long.BYTES, (byte) (record.get(Long.BYTES) | d << SECTION_SHIFT));
+        record.flip();
+        long end = offsets[DIFFICULTIES.length - 1] + (long) (counts[DIFFICULTIES.length - 1] + appendedCount) * RECORD_SIZE;
+        var count = ByteBuffer.allocate(Integer.BYTES).putInt(0, appendedCount + 1);
+        try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            while (record.hasRemaining()) {
+                channel.write(record, end + record.position());
+            }
+            // The record must be on disk before the count includes it
+            channel.force(false);
+            while (count.hasRemaining()) {
+                channel.write(count, APPENDED_POSITION + count.position());
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        // As it will be read from the file, with the name cut
+        var name = truncate(entry.getName().getBytes(StandardCharsets.UTF_8));
+        insert(appended.get(d), new HighscoreEntry(new String(name, StandardCharsets.UTF_8), entry.getTime(), entry.getAchieved()));
+        appendedCount++;
+        return true;
+    }
+
+    @Override
+    public boolean add(Map<Difficulty, List<HighscoreEntry>> highscores, Difficulty difficulty, HighscoreEntry entry) {
+        return add(difficulty, entry);
+    }
+
+    @Override
+    public synchronized boolean save(Map<Difficulty, List<HighscoreEntry>> highscores) {
+        var sections = new ArrayList<List<HighscoreEntry>>();
+        long size = HEADER_SIZE;
+        for (var difficulty : DIFFICULTIES) {
+            var entries = new ArrayList<HighscoreEntry>(highscores.getOrDefault(difficulty, List.of()));
+            entries.sort(HighscoreEntry.TIME_COMPARATOR);
+            sections.add(entries);
+            size += (long) entries.size() * RECORD_SIZE;
+        }
+        if (size > Integer.MAX_VALUE) {
+            // A single mapping is limited to 2 GB
+            return false;
+        }
+
+        try (var channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            for (var entries : sections) {
+                out.putInt(entries.size());
+            }
+            out.position(HEADER_SIZE);
+            for (var entries : sections) {
+                for (var entry : entries) {
+                    write(out, entry);
+                }
+            }
+            out.force();
+            unmap(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        release();
+        try {
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the mapping of the file.
+     */
+    @Override
+    public synchronized void close() {
+        release();
+    }
+
+    /**
+     * Maps the file and reads the header if it has not been done yet.
+     * @return {@code false} if the file does not exist or is not a valid store
+     */
+    private boolean open() {
+        if (buffer != null) {
+            return true;
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC || mapped.getInt(4) < 1 || mapped.getInt(4) > VERSION) {
+                System.err.println("Not a highscore store: " + path);
+                return false;
+            }
+            long offset = HEADER_SIZE;
+            for (int d = 0; d < DIFFICULTIES.length; d++) {
+                counts[d] = mapped.getInt(8 + d * Integer.BYTES);
+                offsets[d] = (int) offset;
+                offset += (long) counts[d] * RECORD_SIZE;
+            }
+            int added = mapped.getInt(APPENDED_POSITION);
+            if (added < 0 || offset + (long) added * RECORD_SIZE > mapped.capacity()) {
+                System.err.println("Truncated highscore store: " + path);
+                return false;
+            }
+            buffer = mapped;
+            for (var extra : appended) {
+                extra.clear();
+            }
+            for (int i = 0; i < added; i++) {
+                int position = (int) offset + i * RECORD_SIZE;
+                int d = (mapped.get(position + Long.BYTES) & 0xFF) >>> SECTION_SHIFT;
+                if (d < DIFFICULTIES.length) {
+                    insert(appended.get(d), read(position));
+                }
+            }
+            appendedCount = added;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private HighscoreEntry read(int position) {
+        long time = buffer.getLong(position);
+        int length = buffer.get(position + Long.BYTES) & NAME_LENGTH_MASK;
+        var name = new byte[length];
+        for (int i = 0; i < length; i++) {
+            name[i] = buffer.get(position + Long.BYTES + 1 + i);
+        }
+        // Not stored, ties keep the order of the records
+        return new HighscoreEntry(new String(name, StandardCharsets.UTF_8), time, 0);
+    }
+
+    private int size(int d) {
+        return counts[d] + appended.get(d).size();
+    }
+
+    /**
+     * Binary search for the first record of a section with a worse time.
+     */
+    private int sectionRank(int d, long time) {
+        int low = 0;
+        int high = counts[d];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(offsets[d] + mid * RECORD_SIZE) <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the number of entries with the same or a better time.
+     */
+    private static int appendedRank(List<HighscoreEntry> entries, long time) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).getTime() <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Inserts the entry behind the entries with the same time.
+     */
+    private static void insert(List<HighscoreEntry> entries, HighscoreEntry entry) {
+        entries.add(appendedRank(entries, entry.getTime()), entry);
+    }
+
+    /**
+     * Unmaps the file, it is mapped again on next use.
+     */
+    private void release() {
+        if (buffer == null) {
+            return;
+        }
+        var mapped = buffer;
+        buffer = null;
+        unmap(mapped);
+    }
+
+    /**
+     * Releases a mapping right away instead of when it is garbage collected.
+     * The buffer must not be used afterwards. If the JDK does not allow it, the mapping is left to the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer mapped) {
+        try {
+            var unsafeClass = Class.forName("sun.misc.Unsafe");
+            var field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), mapped);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Still mapped, replacing the file can fail on Windows
+        }
+    }
+
+    private static void write(ByteBuffer out, HighscoreEntry entry) {
+        int start = out.position();
+        var name = truncate(entry.getName().getBytes(StandardCharsets.UTF_8));
+        out.putLong(entry.getTime());
+        out.put((byte) name.length);
+        out.put(name);
+        out.position(start + RECORD_SIZE);
+    }
+
+    /**
+     * Cuts a UTF-8 name to the maximum length without splitting a character.
+     */
+    private static byte[] truncate(byte[] name) {
+        if (name.length <= MAX_NAME_BYTES) {
+            return name;
+        }
+        int length = MAX_NAME_BYTES;
+        // Continuation bytes start with 10
+        while (length > 0 && (name[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        var truncated = new byte[length];
+        System.arraycopy(name, 0, truncated, 0, length);
+        return truncated;
+    }
+
+    private static int section(Difficulty difficulty) {
+        for (int d = 0; d < DIFFICULTIES.length; d++) {
+            if (DIFFICULTIES[d].equals(difficulty)) {
+                return d;
+            }
+        }
+        return -1;
+    }
+}
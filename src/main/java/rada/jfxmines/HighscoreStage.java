@@ -1,94 +1,257 @@
 package rada.jfxmines;
 
 import java.util.List;
-import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
 
-import javafx.beans.binding.StringBinding;
+import javafx.animation.PauseTransition;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.SelectionMode;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
+import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
-import javafx.scene.control.cell.PropertyValueFactory;
-import javafx.scene.control.cell.TextFieldTableCell;
+import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
+/**
+ * Window with the highscores of every difficulty.
+ * <p>
+ * Entries are shown one page at a time and only the shown page is read from the storage,
+ * so the window opens at once no matter how many entries there are.
+ * The table of a tab is built when the tab is selected for the first time.
+ * Entries can be filtered by the start of the player name, the filter is applied
+ * once typing pauses or on Enter. Highscores of custom difficulties are picked from a list.
+ * @author rada
+ *
+ */
 public class HighscoreStage extends Stage {
-    private Map<Difficulty, List<HighscoreEntry>> highscores;
-    
-    public HighscoreStage(Map<Difficulty, List<HighscoreEntry>> highscores) {
+    // Entries read from the storage at once
+    static final int PAGE_SIZE = 25;
+    // Time without typing before the filter is applied
+    private static final Duration FILTER_DELAY = Duration.millis(250);
+    private static final List<Difficulty> STANDARD = List.of(Difficulty.getEasy(), Difficulty.getMedium(), Difficulty.getHard());
+
+    private final IHighscoreStorage storage;
+    // Shown first, also when it is a custom difficulty
+    private final Difficulty startDifficulty;
+    private TextField filterField;
+    private TabPane tabPane;
+
+    /**
+     * @param storage storage to read the entries from
+     * @param difficulty difficulty whose highscores are shown first
+     */
+    public HighscoreStage(IHighscoreStorage storage, Difficulty difficulty) {
         super();
-        this.highscores = highscores;
-        var scene = new Scene(getRoot(), 300, 500);
+        this.storage = storage;
+        this.startDifficulty = difficulty;
+        var scene = new Scene(getRoot(difficulty), 300, 500);
         this.setMinWidth(300);
         this.setMinHeight(500);
         this.setScene(scene);
-        
+
         this.setTitle("Highscores");
     }
-    
-    private BorderPane getRoot() {
+
+    private BorderPane getRoot(Difficulty difficulty) {
         var root = new BorderPane();
-        var tabPane = new TabPane();
-        
+        tabPane = new TabPane();
+
+        filterField = new TextField();
+        filterField.setPromptText("Filter by name");
+        // The storage is queried once typing pauses, not for every key
+        var filterPause = new PauseTransition(FILTER_DELAY);
+        filterPause.setOnFinished(e -> refresh(tabPane.getSelectionModel().getSelectedItem()));
+        filterField.textProperty().addListener((obs, oldVal, newVal) -> filterPause.playFromStart());
+        filterField.setOnAction(e -> {
+            filterPause.stop();
+            refresh(tabPane.getSelectionModel().getSelectedItem());
+        });
+        BorderPane.setMargin(filterField, new Insets(5));
+
         tabPane.getTabs().add(getTab("Easy", Difficulty.getEasy()));
         tabPane.getTabs().add(getTab("Medium", Difficulty.getMedium()));
         tabPane.getTabs().add(getTab("Hard", Difficulty.getHard()));
-        
+        tabPane.getTabs().add(getTab("Custom", null));
+
+        int index = STANDARD.indexOf(difficulty);
+        tabPane.getSelectionModel().select(index >= 0 ? index : STANDARD.size());
+        refresh(tabPane.getSelectionModel().getSelectedItem());
+        // Tables of the other tabs are built when they are first selected
+        tabPane.getSelectionModel().selectedItemProperty().addListener((obs, oldTab, newTab) -> refresh(newTab));
+
+        root.setTop(filterField);
         root.setCenter(tabPane);
-        
+
         return root;
     }
-    
+
+    /**
+     * @param difficulty difficulty of the tab, {@code null} for the tab with custom difficulties
+     */
     private Tab getTab(String title, Difficulty difficulty) {
         var tab = new Tab();
         tab.setClosable(false);
         tab.setText(title);
-        tab.setContent(getTable(difficulty));
+        tab.setUserData(difficulty);
         return tab;
     }
-    
-    private TableView<HighscoreEntry> getTable(Difficulty difficulty) {
+
+    /**
+     * Builds the content of a tab if needed and reads the first page.
+     */
+    private void refresh(Tab tab) {
+        if (tab == null) {
+            return;
+        }
+        if (tab.getContent() == null) {
+            var difficulty = (Difficulty) tab.getUserData();
+            tab.setContent(difficulty != null ? new HighscoreView(difficulty) : getCustomView());
+        }
+        ((HighscoreView) tab.getContent()).showPage(0);
+    }
+
+    private HighscoreView getCustomView() {
+        var custom = storage.difficulties().stream()
+                .filter(difficulty -> !STANDARD.contains(difficulty))
+                .collect(Collectors.toList());
+        int selected = Math.max(0, custom.indexOf(startDifficulty));
+        var view = new HighscoreView(custom.isEmpty() ? null : custom.get(selected));
+
+        var choiceBox = new ChoiceBox<Difficulty>(FXCollections.observableList(custom));
+        choiceBox.setMaxWidth(Double.MAX_VALUE);
+        choiceBox.setDisable(custom.isEmpty());
+        if (!custom.isEmpty()) {
+            choiceBox.getSelectionModel().select(selected);
+        }
+        choiceBox.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
+            view.difficulty = newVal;
+            view.showPage(0);
+        });
+        BorderPane.setMargin(choiceBox, new Insets(5));
+        view.setTop(choiceBox);
+        return view;
+    }
+
+    /**
+     * Table with one page of the highscores of a difficulty and buttons to move between pages.
+     */
+    private class HighscoreView extends BorderPane {
+        // Null if there is nothing to show
+        private Difficulty difficulty;
+        private final TableView<HighscoreEntry> table;
+        private final Button previousBtn;
+        private final Button nextBtn;
+        private final Label pageLbl;
+        private int page;
+        private int pageCount;
+
+        HighscoreView(Difficulty difficulty) {
+            this.difficulty = difficulty;
+            table = getTable(() -> page * PAGE_SIZE);
+
+            previousBtn = new Button("<");
+            previousBtn.setOnAction(e -> showPage(page - 1));
+            nextBtn = new Button(">");
+            nextBtn.setOnAction(e -> showPage(page + 1));
+            pageLbl = new Label();
+            var navigation = new HBox(10, previousBtn, pageLbl, nextBtn);
+            navigation.setAlignment(Pos.CENTER);
+            navigation.setPadding(new Insets(5));
+
+            setCenter(table);
+            setBottom(navigation);
+        }
+
+        /**
+         * Reads a page from the storage, the number of pages is updated as well
+         * because the filter or the stored entries may have changed.
+         */
+        void showPage(int page) {
+            var filter = filterField.getText();
+            int count = difficulty == null ? 0 : storage.count(difficulty, filter);
+            pageCount = Math.max(1, (count + PAGE_SIZE - 1) / PAGE_SIZE);
+            this.page = Math.max(0, Math.min(page, pageCount - 1));
+
+            if (difficulty == null) {
+                table.getItems().clear();
+            } else {
+                table.getItems().setAll(storage.page(difficulty, filter, this.page * PAGE_SIZE, PAGE_SIZE));
+            }
+            // Order cells read the offset when they are updated
+            table.refresh();
+            table.scrollTo(0);
+
+            pageLbl.setText((this.page + 1) + " / " + pageCount);
+            previousBtn.setDisable(this.page == 0);
+            nextBtn.setDisable(this.page >= pageCount - 1);
+        }
+    }
+
+    private TableView<HighscoreEntry> getTable(IntSupplier offset) {
         var table = new TableView<HighscoreEntry>();
-        
+        table.setPlaceholder(new Label("No highscores"));
+
         var orderCol = new TableColumn<HighscoreEntry, String>("");
-        orderCol.setCellFactory(value -> new OrderTableCell<HighscoreEntry>());
-        orderCol.setMinWidth(32);
-        orderCol.setMaxWidth(48);
-        orderCol.setPrefWidth(32);
+        orderCol.setCellFactory(value -> new OrderTableCell<HighscoreEntry>(offset));
+        orderCol.setMinWidth(48);
+        orderCol.setMaxWidth(64);
+        orderCol.setPrefWidth(48);
         orderCol.setEditable(false);
         orderCol.setSortable(false);
-        
+
+        // Cells read the entry of their row, no value is created for every row
         var nameCol = new TableColumn<HighscoreEntry, String>("Name");
-        nameCol.setCellValueFactory(new PropertyValueFactory<>("name"));
-        nameCol.setCellFactory(TextFieldTableCell.forTableColumn());
+        nameCol.setCellFactory(value -> new EntryTableCell(HighscoreEntry::getName));
         nameCol.setEditable(false);
         nameCol.setSortable(false);
         nameCol.setMinWidth(100);
-        
+
         var timeCol = new TableColumn<HighscoreEntry, String>("Time");
-        timeCol.setCellValueFactory(col -> new StringBinding() {
-            @Override
-            protected String computeValue() {
-                return col.getValue().getFormatedTime();
-            }
-        });
-        timeCol.setMinWidth(50);
+        timeCol.setCellFactory(value -> new EntryTableCell(HighscoreEntry::getFormatedTime));
+        timeCol.setMinWidth(70);
         timeCol.setEditable(false);
         timeCol.setSortable(false);
-        
+
         table.getColumns().add(orderCol);
         table.getColumns().add(nameCol);
         table.getColumns().add(timeCol);
         table.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
-        
-        if (highscores != null) {
-            table.getItems().addAll(highscores.get(difficulty));
-            table.getItems().sort(HighscoreEntry.TIME_COMPARATOR);
-        }
-        
+
         return table;
     }
+
+    /**
+     * Shows a text taken from the entry of the row.
+     */
+    private static class EntryTableCell extends TableCell<HighscoreEntry, String> {
+        private final Function<HighscoreEntry, String> text;
+
+        EntryTableCell(Function<HighscoreEntry, String> text) {
+            this.text = text;
+        }
+
+        @Override
+        protected void updateItem(String item, boolean empty) {
+            super.updateItem(item, empty);
+            var items = getTableView() == null ? null : getTableView().getItems();
+            if (empty || items == null || getIndex() < 0 || getIndex() >= items.size()) {
+                setText(null);
+            } else {
+                setText(text.apply(items.get(getIndex())));
+            }
+        }
+    }
 }
@@ -0,0 +1,424 @@
+package rada.jfxmines;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Writes highscores to another storage on a background thread.
+ * <p>
+ * New entries are queued and return right away. The writer thread takes everything
+ * queued so far and writes it with a single {@link IHighscoreStorage#addAll(Map)},
+ * so a burst of entries costs one write. Callers that need to know when an entry
+ * is durable use the future returned by {@link #addAsync(Difficulty, HighscoreEntry)}.
+ * <p>
+ * The writer thread loads the highscores once when it starts into a {@link Leaderboard} per difficulty,
+ * and adds every written entry to them. Queries are answered from the leaderboards and the entries
+ * not written yet, they never touch the storage below, so they do not wait for a write in progress.
+ * Ranking a time takes logarithmic time. Only a query made before the first load has finished waits for it.
+ * Any difficulty is ranked, a storage that cannot keep one fails to write its entries.
+ * {@link #close()} waits until the queue is written.
+ * @author rada
+ *
+ */
+public class HighscoreWriteBehindStorage implements IHighscoreStorage {
+    // How long close() waits for the queue to be written
+    private static final long DRAIN_TIMEOUT_SECONDS = 10;
+
+    private final IHighscoreStorage storage;
+    private final ExecutorService writer;
+    // Completed once the writer thread has loaded the stored highscores
+    private final CompletableFuture<Void> loaded;
+    // What the storage holds, changed by the writer thread once a write succeeded
+    private Map<Difficulty, Leaderboard> stored = new HashMap<>();
+    // Entries not yet written, in the order they were added
+    private List<Pending> queue = new ArrayList<>();
+    // Replaces all highscores before the queued entries are written, null if none
+    private Pending queuedSave;
+    // Being written by the writer thread, not yet part of the stored highscores
+    private List<Pending> inFlight = List.of();
+    private Pending inFlightSave;
+    private boolean flushScheduled;
+
+    /**
+     * Starts loading the highscores on the writer thread.
+     * @param storage storage the highscores are written to
+     */
+    public HighscoreWriteBehindStorage(IHighscoreStorage storage) {
+        this.storage = storage;
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "highscore-writer");
+            // Must not keep the application running, close() drains the queue
+            thread.setDaemon(true);
+            return thread;
+        });
+        loaded = CompletableFuture.runAsync(() -> {
+            var boards = load(storage);
+            synchronized (this) {
+                stored = boards;
+            }
+        }, writer);
+    }
+
+    /**
+     * Queues a new entry.
+     * @return future completed with {@code true} once the entry is written,
+     *      {@code false} if the storage failed to write it
+     */
+    public synchronized CompletableFuture<Boolean> addAsync(Difficulty difficulty, HighscoreEntry entry) {
+        var pending = new Pending(difficulty, entry, null);
+        queue.add(pending);
+        scheduleFlush();
+        return pending.future;
+    }
+
+    /**
+     * Queues replacing all highscores, entries queued before are dropped.
+     * @return future completed with the result of the save
+     */
+    public CompletableFuture<Boolean> saveAsync(Map<Difficulty, List<HighscoreEntry>> highscores) {
+        var copy = new HashMap<Difficulty, List<HighscoreEntry>>();
+        highscores.forEach((difficulty, entries) -> copy.put(difficulty, new ArrayList<>(entries)));
+        // Leaderboards are built before taking the lock, queries wait for it otherwise
+        var pending = new Pending(null, null, copy);
+        synchronized (this) {
+            if (queuedSave != null) {
+                pending.future.thenAccept(queuedSave.future::complete);
+            }
+            for (var dropped : queue) {
+                pending.future.thenAccept(dropped.future::complete);
+            }
+            queue = new ArrayList<>();
+            queuedSave = pending;
+            scheduleFlush();
+        }
+        return pending.future;
+    }
+
+    /**
+     * Returns a future completed once everything queued so far is written.
+     */
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(() -> { }, writer);
+    }
+
+    /**
+     * Queues the entry, see {@link #addAsync(Difficulty, HighscoreEntry)}.
+     * @return always {@code true}, the entry is written later
+     */
+    @Override
+    public boolean add(Difficulty difficulty, HighscoreEntry entry) {
+        addAsync(difficulty, entry);
+        return true;
+    }
+
+    @Override
+    public boolean add(Map<Difficulty, List<HighscoreEntry>> highscores, Difficulty difficulty, HighscoreEntry entry) {
+        return add(difficulty, entry);
+    }
+
+    @Override
+    public synchronized boolean addAll(Map<Difficulty, List<HighscoreEntry>> entries) {
+        entries.forEach((difficulty, list) -> list.forEach(entry -> queue.add(new Pending(difficulty, entry, null))));
+        scheduleFlush();
+        return true;
+    }
+
+    /**
+     * Queues replacing all highscores, see {@link #saveAsync(Map)}.
+     * @return always {@code true}, the highscores are written later
+     */
+    @Override
+    public boolean save(Map<Difficulty, List<HighscoreEntry>> highscores) {
+        saveAsync(highscores);
+        return true;
+    }
+
+    @Override
+    public Map<Difficulty, List<HighscoreEntry>> load() {
+        return query(View::load);
+    }
+
+    @Override
+    public List<HighscoreEntry> top(Difficulty difficulty, int limit) {
+        return page(difficulty, 0, limit);
+    }
+
+    @Override
+    public List<HighscoreEntry> page(Difficulty difficulty, int offset, int limit) {
+        return page(difficulty, null, offset, limit);
+    }
+
+    @Override
+    public List<HighscoreEntry> page(Difficulty difficulty, String namePrefix, int offset, int limit) {
+        return query(view -> view.page(difficulty, namePrefix, offset, limit));
+    }
+
+    @Override
+    public int count(Difficulty difficulty) {
+        return count(difficulty, null);
+    }
+
+    @Override
+    public int count(Difficulty difficulty, String namePrefix) {
+        return query(view -> view.count(difficulty, namePrefix));
+    }
+
+    @Override
+    public List<Difficulty> difficulties() {
+        return query(View::difficulties);
+    }
+
+    @Override
+    public int rank(Difficulty difficulty, long time) {
+        return query(view -> view.rank(difficulty, time));
+    }
+
+    @Override
+    public HighscoreEntry best(Difficulty difficulty, String name) {
+        return query(view -> view.best(difficulty, name));
+    }
+
+    /**
+     * Writes the queue and closes the storage.
+     * Waits at most {@value #DRAIN_TIMEOUT_SECONDS} seconds for a slow storage.
+     */
+    @Override
+    public void close() {
+        try {
+            flush().get(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Highscores were not written: " + e);
+        }
+        writer.shutdown();
+        storage.close();
+    }
+
+    /**
+     * Runs a query on the highscores as they will be once everything queued is written.
+     * Waits for the first load only, the lock is never held by the writer during a write.
+     */
+    private <T> T query(Function<View, T> query) {
+        loaded.join();
+        synchronized (this) {
+            if (queuedSave != null) {
+                // Replaces everything before it, saveAsync dropped the entries queued earlier
+                return query.apply(new View(queuedSave.boards, group(queue)));
+            }
+            var pending = new ArrayList<Pending>(inFlight);
+            pending.addAll(queue);
+            return query.apply(new View(inFlightSave != null ? inFlightSave.boards : stored, group(pending)));
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writer.execute(this::write);
+        }
+    }
+
+    /**
+     * Writes everything queued so far, runs on the writer thread.
+     */
+    private void write() {
+        Pending save;
+        List<Pending> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            save = queuedSave;
+            batch = queue;
+            // Entries added while writing form the next batch
+            queuedSave = null;
+            queue = new ArrayList<>();
+            inFlightSave = save;
+            inFlight = batch;
+        }
+        // No lock is held while writing, queries see the batch in flight until the leaderboards include it
+        var completions = new ArrayList<Runnable>();
+        boolean success = true;
+        if (save != null) {
+            success &= write(List.of(save), () -> storage.save(save.highscores), completions);
+        }
+        if (!batch.isEmpty()) {
+            success &= write(batch, () -> storage.addAll(group(batch)), completions);
+        }
+        // Part of it may have been written, the storage knows what it holds
+        var reloaded = success ? null : load(storage);
+        synchronized (this) {
+            if (reloaded != null) {
+                stored = reloaded;
+            } else {
+                if (save != null) {
+                    stored = save.boards;
+                }
+                for (var pending : batch) {
+                    board(stored, pending.difficulty).add(pending.entry);
+                }
+            }
+            inFlightSave = null;
+            inFlight = List.of();
+        }
+        // Callbacks of the futures see the entries stored
+        completions.forEach(Runnable::run);
+    }
+
+    /**
+     * Writes pending entries or a save.
+     * @param completions gets the completion of the futures of the written entries
+     * @return {@code true} if the storage wrote them
+     */
+    private static boolean write(List<Pending> written, BooleanSupplier write, List<Runnable> completions) {
+        try {
+            boolean success = write.getAsBoolean();
+            completions.add(() -> written.forEach(pending -> pending.future.complete(success)));
+            return success;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            completions.add(() -> written.forEach(pending -> pending.future.completeExceptionally(e)));
+            return false;
+        }
+    }
+
+    /**
+     * Loads the highscores of a storage into leaderboards, none if it fails.
+     */
+    private static Map<Difficulty, Leaderboard> load(IHighscoreStorage storage) {
+        try {
+            return boards(storage.load());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return new HashMap<>();
+        }
+    }
+
+    private static Map<Difficulty, Leaderboard> boards(Map<Difficulty, List<HighscoreEntry>> highscores) {
+        var boards = new HashMap<Difficulty, Leaderboard>();
+        highscores.forEach((difficulty, entries) -> boards.put(difficulty, Leaderboard.of(entries, Integer.MAX_VALUE)));
+        return boards;
+    }
+
+    private static Leaderboard board(Map<Difficulty, Leaderboard> boards, Difficulty difficulty) {
+        return boards.computeIfAbsent(difficulty, d -> new Leaderboard(Integer.MAX_VALUE));
+    }
+
+    private static Map<Difficulty, List<HighscoreEntry>> group(List<Pending> pending) {
+        return pending.stream().collect(Collectors.groupingBy(p -> p.difficulty, LinkedHashMap::new,
+                Collectors.mapping(p -> p.entry, Collectors.toList())));
+    }
+
+    /**
+     * Read only view of the leaderboards and the entries not written yet, used while holding the lock.
+     */
+    private static class View {
+        private final Map<Difficulty, Leaderboard> boards;
+        private final Map<Difficulty, List<HighscoreEntry>> pending;
+
+        View(Map<Difficulty, Leaderboard> boards, Map<Difficulty, List<HighscoreEntry>> pending) {
+            this.boards = boards;
+            this.pending = pending;
+        }
+
+        Map<Difficulty, List<HighscoreEntry>> load() {
+            var map = new HashMap<Difficulty, List<HighscoreEntry>>();
+            boards.forEach((difficulty, board) -> map.put(difficulty, entries(difficulty, null)));
+            pending.keySet().forEach(difficulty -> map.put(difficulty, entries(difficulty, null)));
+            return map;
+        }
+
+        List<HighscoreEntry> page(Difficulty difficulty, String namePrefix, int offset, int limit) {
+            var board = boards.get(difficulty);
+            if (board != null && !pending.containsKey(difficulty) && (namePrefix == null || namePrefix.isEmpty())) {
+                return board.page(offset, limit);
+            }
+            var entries = entries(difficulty, namePrefix);
+            return new ArrayList<>(entries.subList(Math.min(offset, entries.size()),
+                    (int) Math.min((long) offset + limit, entries.size())));
+        }
+
+        int count(Difficulty difficulty, String namePrefix) {
+            if (namePrefix == null || namePrefix.isEmpty()) {
+                var board = boards.get(difficulty);
+                return (board == null ? 0 : board.size()) + pending.getOrDefault(difficulty, List.of()).size();
+            }
+            return entries(difficulty, namePrefix).size();
+        }
+
+        List<Difficulty> difficulties() {
+            var list = new ArrayList<Difficulty>();
+            boards.forEach((difficulty, board) -> {
+                if (!board.isEmpty()) {
+                    list.add(difficulty);
+                }
+            });
+            for (var difficulty : pending.keySet()) {
+                if (!list.contains(difficulty)) {
+                    list.add(difficulty);
+                }
+            }
+            return list;
+        }
+
+        int rank(Difficulty difficulty, long time) {
+            var board = boards.get(difficulty);
+            int rank = board == null ? 0 : board.rank(time);
+            return rank + (int) pending.getOrDefault(difficulty, List.of()).stream().filter(entry -> entry.getTime() <= time).count();
+        }
+
+        HighscoreEntry best(Difficulty difficulty, String name) {
+            for (var entry : entries(difficulty, null)) {
+                if (entry.getName().equals(name)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the entries of a difficulty whose names start with a prefix in a new list, best first.
+         */
+        private List<HighscoreEntry> entries(Difficulty difficulty, String namePrefix) {
+            var board = boards.get(difficulty);
+            var entries = board == null ? new ArrayList<HighscoreEntry>() : board.toList();
+            entries.addAll(pending.getOrDefault(difficulty, List.of()));
+            // Stable, stored entries stay ahead of queued ones that compare equal
+            entries.sort(HighscoreEntry.TIME_COMPARATOR);
+            if (namePrefix == null || namePrefix.isEmpty()) {
+                return entries;
+            }
+            return entries.stream().filter(entry -> entry.getName().startsWith(namePrefix)).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Entry or save waiting to be written.
+     */
+    private static class Pending {
+        final Difficulty difficulty;
+        final HighscoreEntry entry;
+        final Map<Difficulty, List<HighscoreEntry>> highscores;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        // Leaderboards of a save, built by the caller so that the lock is not held meanwhile
+        final Map<Difficulty, Leaderboard> boards;
+
+        Pending(Difficulty difficulty, HighscoreEntry entry, Map<Difficulty, List<HighscoreEntry>> highscores) {
+            this.difficulty = difficulty;
+            this.entry = entry;
+            this.highscores = highscores;
+            boards = highscores == null ? null : HighscoreWriteBehindStorage.boards(highscores);
+        }
+    }
+}
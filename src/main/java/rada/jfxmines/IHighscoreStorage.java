@@ -1,7 +1,9 @@
 package rada.jfxmines;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public interface IHighscoreStorage {
     /**
@@ -16,4 +18,190 @@ public interface IHighscoreStorage {
      * @return {@code true} if successful, {@code false} otherwise
      */ 
     public boolean save(Map<Difficulty, List<HighscoreEntry>> highscores);
+    
+    /**
+     * Saves highscores after a single entry was added to them.
+     * The default implementation saves all of them,
+     * storages that can record one entry on its own override it.
+     * @param highscores all highscores including the new entry
+     * @param difficulty difficulty of the new entry
+     * @param entry the new entry
+     * @return {@code true} if successful, {@code false} otherwise
+     */
+    public default boolean add(Map<Difficulty, List<HighscoreEntry>> highscores, Difficulty difficulty, HighscoreEntry entry) {
+        return save(highscores);
+    }
+    
+    /**
+     * Saves a single new entry.
+     * The default implementation loads all highscores and saves them with the entry added,
+     * storages that can record one entry on its own override it.
+     * @param difficulty difficulty of the new entry
+     * @param entry the new entry
+     * @return {@code true} if successful, {@code false} otherwise
+     */
+    public default boolean add(Difficulty difficulty, HighscoreEntry entry) {
+        var highscores = load();
+        // A difficulty without entries may be missing from the map
+        highscores.computeIfAbsent(difficulty, d -> new ArrayList<>()).add(entry);
+        return add(highscores, difficulty, entry);
+    }
+    
+    /**
+     * Saves several new entries.
+     * The default implementation adds them one by one,
+     * storages that can write them together override it.
+     * @param entries new entries of every difficulty, in the order they were achieved
+     * @return {@code true} if all of them were saved, {@code false} otherwise
+     */
+    public default boolean addAll(Map<Difficulty, List<HighscoreEntry>> entries) {
+        boolean success = true;
+        for (var mapEntry : entries.entrySet()) {
+            for (var entry : mapEntry.getValue()) {
+                success &= add(mapEntry.getKey(), entry);
+            }
+        }
+        return success;
+    }
+    
+    /**
+     * Returns the best entries of one difficulty.
+     * The default implementation loads all highscores.
+     * @param difficulty difficulty of the entries
+     * @param limit maximum number of entries
+     * @return entries sorted by time, best first
+     */
+    public default List<HighscoreEntry> top(Difficulty difficulty, int limit) {
+        var entries = load().get(difficulty);
+        if (entries == null) {
+            return List.of();
+        }
+        return entries.stream()
+                .sorted(HighscoreEntry.TIME_COMPARATOR)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * Returns one page of the entries of a difficulty.
+     * The default implementation loads all highscores.
+     * @param difficulty difficulty of the entries
+     * @param offset number of better entries to skip
+     * @param limit maximum number of entries
+     * @return entries sorted by time, best first
+     */
+    public default List<HighscoreEntry> page(Difficulty difficulty, int offset, int limit) {
+        var entries = load().get(difficulty);
+        if (entries == null) {
+            return List.of();
+        }
+        return entries.stream()
+                .sorted(HighscoreEntry.TIME_COMPARATOR)
+                .skip(offset)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * Returns the number of entries of a difficulty.
+     * The default implementation loads all highscores.
+     */
+    public default int count(Difficulty difficulty) {
+        var entries = load().get(difficulty);
+        return entries == null ? 0 : entries.size();
+    }
+    
+    /**
+     * Returns one page of the entries of a difficulty whose names start with a prefix.
+     * The default implementation loads all highscores when filtering.
+     * @param difficulty difficulty of the entries
+     * @param namePrefix start of the names, {@code null} or empty for all entries
+     * @param offset number of better matching entries to skip
+     * @param limit maximum number of entries
+     * @return entries sorted by time, best first
+     */
+    public default List<HighscoreEntry> page(Difficulty difficulty, String namePrefix, int offset, int limit) {
+        if (namePrefix == null || namePrefix.isEmpty()) {
+            return page(difficulty, offset, limit);
+        }
+        var entries = load().get(difficulty);
+        if (entries == null) {
+            return List.of();
+        }
+        return entries.stream()
+                .filter(entry -> entry.getName().startsWith(namePrefix))
+                .sorted(HighscoreEntry.TIME_COMPARATOR)
+                .skip(offset)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * Returns the number of entries of a difficulty whose names start with a prefix.
+     * The default implementation loads all highscores when filtering.
+     * @param namePrefix start of the names, {@code null} or empty for all entries
+     */
+    public default int count(Difficulty difficulty, String namePrefix) {
+        if (namePrefix == null || namePrefix.isEmpty()) {
+            return count(difficulty);
+        }
+        var entries = load().get(difficulty);
+        if (entries == null) {
+            return 0;
+        }
+        return (int) entries.stream().filter(entry -> entry.getName().startsWith(namePrefix)).count();
+    }
+    
+    /**
+     * Returns the difficulties that have at least one entry.
+     * The default implementation loads all highscores.
+     */
+    public default List<Difficulty> difficulties() {
+        return load().entrySet().stream()
+                .filter(mapEntry -> !mapEntry.getValue().isEmpty())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * Returns the position a new entry with the given time would get.
+     * Entries with the same time stay ahead of the new one.
+     * The default implementation loads all highscores.
+     * @param difficulty difficulty of the entry
+     * @param time time in milliseconds
+     * @return number of entries with the same or a better time,
+     *      -1 if the difficulty is not stored
+     */
+    public default int rank(Difficulty difficulty, long time) {
+        var entries = load().get(difficulty);
+        if (entries == null) {
+            return -1;
+        }
+        return (int) entries.stream().filter(entry -> entry.getTime() <= time).count();
+    }
+    
+    /**
+     * Returns the best entry of a player.
+     * The default implementation loads all highscores.
+     * @param difficulty difficulty of the entry
+     * @param name name of the player
+     * @return the entry with the best time, {@code null} if the player has none
+     */
+    public default HighscoreEntry best(Difficulty difficulty, String name) {
+        var entries = load().get(difficulty);
+        if (entries == null) {
+            return null;
+        }
+        return entries.stream()
+                .filter(entry -> entry.getName().equals(name))
+                .min(HighscoreEntry.TIME_COMPARATOR)
+                .orElse(null);
+    }
+    
+    /**
+     * Releases the resources held by the storage.
+     * The default implementation does nothing.
+     */
+    public default void close() {
+    }
 }
@@ -0,0 +1,33 @@
+package rada.jfxmines;
+
+/**
+ * Visual representation of a minefield.
+ * {@link Game} notifies its view about every change of the board.
+ */
+public interface IMinefieldView {
+    /**
+     * Called after the mines have been placed.
+     */
+    public void boardStarted();
+    
+    /**
+     * Called after cells have been revealed.
+     * @param revealed indices of newly revealed cells, only valid during the call
+     */
+    public void cellsRevealed(IntList revealed);
+    
+    /**
+     * Called after a cell was flagged or unflagged.
+     * @param x x-coordinate of cell
+     * @param y y-coordinate of cell
+     * @param flag {@code true} if the cell is flagged
+     */
+    public void flagChanged(int x, int y, boolean flag);
+    
+    /**
+     * Called when new mine probabilities have been computed for the hint overlay.
+     * @param probabilities probability of a mine for every cell indexed by {@code y * width + x},
+     * {@code null} to hide the hints
+     */
+    public void hintsChanged(double[] probabilities);
+}
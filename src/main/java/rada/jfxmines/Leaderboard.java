@@ -0,0 +1,255 @@
+package rada.jfxmines;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Highscores of one difficulty kept sorted by time, best first.
+ * <p>
+ * The entries are held in a balanced search tree that knows the size of every subtree,
+ * so adding an entry, finding its position and checking whether a time would qualify
+ * all take logarithmic time. Entries with the same time are ordered by when they were achieved,
+ * see {@link HighscoreEntry#getAchieved()}, and by when they were added if that is the same too.
+ * An earlier entry stays ahead of a later one, also after the entries are stored and loaded again.
+ * <p>
+ * The leaderboard keeps at most a given number of entries,
+ * when it is full a new entry pushes out the worst one.
+ * @author rada
+ *
+ */
+public class Leaderboard {
+    private final int capacity;
+    // Balances the tree, the same sequence of adds always builds the same tree
+    private final SplittableRandom random = new SplittableRandom(0);
+    private Node root;
+    // Order of the entries with equal times and achievement times
+    private long sequence;
+
+    /**
+     * @param capacity maximum number of entries kept
+     */
+    public Leaderboard(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates a leaderboard holding the given entries.
+     * Entries with the same time and achievement time are ordered as in the list.
+     */
+    public static Leaderboard of(List<HighscoreEntry> entries, int capacity) {
+        var leaderboard = new Leaderboard(capacity);
+        for (var entry : entries) {
+            leaderboard.add(entry);
+        }
+        return leaderboard;
+    }
+
+    /**
+     * Adds an entry, the worst entry is dropped if the leaderboard is full.
+     * @return position of the entry, -1 if it did not qualify
+     */
+    public int add(HighscoreEntry entry) {
+        var node = new Node(entry, sequence, random.nextInt());
+        // An entry achieved earlier goes ahead of entries with the same time
+        int position = position(node);
+        if (position >= capacity) {
+            return -1;
+        }
+        sequence++;
+        var parts = split(root, node);
+        root = merge(merge(parts.x, node), parts.y);
+        if (size() > capacity) {
+            root = removeLast(root);
+        }
+        return position;
+    }
+
+    /**
+     * Returns {@code true} if an entry with the given time would be kept.
+     */
+    public boolean qualifies(long time) {
+        return rank(time) < capacity;
+    }
+
+    /**
+     * Returns the position a new entry with the given time would get,
+     * which is the number of entries with the same or a better time.
+     */
+    public int rank(long time) {
+        int rank = 0;
+        var node = root;
+        while (node != null) {
+            if (node.entry.getTime() <= time) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the number of entries ordered before a node that is not in the tree.
+     */
+    private int position(Node key) {
+        int position = 0;
+        var node = root;
+        while (node != null) {
+            if (node.isBefore(key)) {
+                position += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Returns the entry at a position, 0 is the best one.
+     */
+    public HighscoreEntry get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+        }
+        var node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.entry;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the entries at positions from {@code offset}, at most {@code limit} of them.
+     */
+    public List<HighscoreEntry> page(int offset, int limit) {
+        var list = new ArrayList<HighscoreEntry>(Math.max(0, Math.min(limit, size() - offset)));
+        collect(root, offset, list, limit);
+        return list;
+    }
+
+    /**
+     * Returns all entries, best first.
+     */
+    public List<HighscoreEntry> toList() {
+        return page(0, size());
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Appends the entries of a subtree in order, skipping the first {@code skip} of them.
+     */
+    private static void collect(Node node, int skip, List<HighscoreEntry> list, int limit) {
+        if (node == null || list.size() >= limit) {
+            return;
+        }
+        int leftSize = size(node.left);
+        if (skip < leftSize) {
+            collect(node.left, skip, list, limit);
+        }
+        if (skip <= leftSize && list.size() < limit) {
+            list.add(node.entry);
+        }
+        collect(node.right, Math.max(0, skip - leftSize - 1), list, limit);
+    }
+
+    /**
+     * Splits a subtree into the nodes ordered before the given node and the rest.
+     */
+    private static Pair<Node, Node> split(Node node, Node key) {
+        if (node == null) {
+            return new Pair<Node, Node>(null, null);
+        }
+        if (node.isBefore(key)) {
+            var parts = split(node.right, key);
+            node.right = parts.x;
+            node.update();
+            return new Pair<Node, Node>(node, parts.y);
+        }
+        var parts = split(node.left, key);
+        node.left = parts.y;
+        node.update();
+        return new Pair<Node, Node>(parts.x, node);
+    }
+
+    /**
+     * Joins two subtrees, all nodes of the first one are ordered before the second one.
+     */
+    private static Node merge(Node first, Node second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            first.update();
+            return first;
+        }
+        second.left = merge(first, second.left);
+        second.update();
+        return second;
+    }
+
+    private static Node removeLast(Node node) {
+        if (node.right == null) {
+            return node.left;
+        }
+        node.right = removeLast(node.right);
+        node.update();
+        return node;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static class Node {
+        final HighscoreEntry entry;
+        final long sequence;
+        // Parents have a higher priority than their children
+        final int priority;
+        Node left;
+        Node right;
+        int size = 1;
+
+        Node(HighscoreEntry entry, long sequence, int priority) {
+            this.entry = entry;
+            this.sequence = sequence;
+            this.priority = priority;
+        }
+
+        boolean isBefore(Node other) {
+            int byTime = HighscoreEntry.TIME_COMPARATOR.compare(entry, other.entry);
+            return byTime < 0 || (byTime == 0 && sequence < other.sequence);
+        }
+
+        void update() {
+            size = 1 + Leaderboard.size(left) + Leaderboard.size(right);
+        }
+    }
+}
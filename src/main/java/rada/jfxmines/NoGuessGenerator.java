@@ -0,0 +1,125 @@
+package rada.jfxmines;
+
+import java.util.ArrayList;
+import java.util.OptionalLong;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Finds boards that can be solved without guessing.
+ * Every core but one generates candidate boards for the given first click and plays them
+ * with the {@link Solver}. The first board the solver wins is used
+ * and the remaining workers are cancelled.
+ * <p>
+ * {@link #findSeedAsync(Difficulty, int, int, long)} waits for the workers on a separate thread,
+ * so that the first click does not block the JavaFX Application Thread.
+ * @author rada
+ *
+ */
+public class NoGuessGenerator {
+    // One core is left to the JavaFX Application Thread
+    private static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static ExecutorService executor;
+    // Waits for the workers, so that the caller of findSeedAsync does not
+    private static ExecutorService coordinator;
+
+    private NoGuessGenerator() {
+    }
+
+    /**
+     * Searches for a seed of a board that is solvable without guessing.
+     * @param difficulty size and number of mines of the board
+     * @param clickedX x-coordinate of the first click
+     * @param clickedY y-coordinate of the first click
+     * @param timeoutMillis how long to search before giving up
+     * @return seed for {@link Board#start(int, int, long)}, empty if none was found in time
+     */
+    public static OptionalLong findSeed(Difficulty difficulty, int clickedX, int clickedY, long timeoutMillis) {
+        var random = new SplittableRandom();
+        var workers = new ArrayList<Callable<Long>>(WORKERS);
+        for (int i = 0; i < WORKERS; i++) {
+            // Each worker gets its own random stream
+            var workerRandom = random.split();
+            workers.add(() -> search(difficulty, clickedX, clickedY, workerRandom));
+        }
+
+        try {
+            return OptionalLong.of(getExecutor().invokeAny(workers, timeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException | ExecutionException e) {
+            return OptionalLong.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Searches for a seed like {@link #findSeed(Difficulty, int, int, long)} without blocking the caller.
+     * @return future completed with the seed, or with an empty value if none was found in time
+     */
+    public static CompletableFuture<OptionalLong> findSeedAsync(Difficulty difficulty, int clickedX, int clickedY,
+            long timeoutMillis) {
+        return CompletableFuture.supplyAsync(() -> findSeed(difficulty, clickedX, clickedY, timeoutMillis), getCoordinator());
+    }
+
+    /**
+     * Generates boards until one is solvable, stops when the thread is interrupted.
+     */
+    private static long search(Difficulty difficulty, int clickedX, int clickedY, SplittableRandom random)
+            throws InterruptedException {
+        while (!Thread.currentThread().isInterrupted()) {
+            long seed = random.nextLong();
+            var board = new Board(difficulty);
+            board.start(clickedX, clickedY, seed);
+            if (isSolvable(board, clickedX, clickedY)) {
+                return seed;
+            }
+        }
+        throw new InterruptedException();
+    }
+
+    /**
+     * Plays the board using only certain deductions.
+     * @return {@code true} if the game was won
+     */
+    static boolean isSolvable(Board board, int clickedX, int clickedY) {
+        var solver = new Solver(board);
+        int width = board.getWidth();
+        solver.update(board.reveal(clickedX, clickedY));
+        int next;
+        while (board.getState() == Board.State.IN_PROGRESS && (next = solver.nextSafeCell()) >= 0) {
+            solver.update(board.reveal(next % width, next / width));
+        }
+        return board.getState() == Board.State.WON;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(WORKERS, runnable -> {
+                var thread = new Thread(runnable, "no-guess-generator");
+                // Must not keep the application running
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private static synchronized ExecutorService getCoordinator() {
+        if (coordinator == null) {
+            coordinator = Executors.newSingleThreadExecutor(runnable -> {
+                var thread = new Thread(runnable, "no-guess-search");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return coordinator;
+    }
+}
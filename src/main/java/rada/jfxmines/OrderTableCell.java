@@ -1,8 +1,23 @@
 package rada.jfxmines;
 
+import java.util.function.IntSupplier;
+
 import javafx.scene.control.TableCell;
 
 public class OrderTableCell<T> extends TableCell<T, String> {
+    // Position of the first row, the table may show a later page
+    private final IntSupplier offset;
+    
+    public OrderTableCell() {
+        this(() -> 0);
+    }
+    
+    /**
+     * @param offset number of entries before the first row of the table
+     */
+    public OrderTableCell(IntSupplier offset) {
+        this.offset = offset;
+    }
     
     @Override 
     protected void updateItem(String item, boolean empty) {
@@ -11,7 +26,7 @@ public class OrderTableCell<T> extends TableCell<T, String> {
         if (empty) {
             setText(null);
         } else {
-            setText((getIndex() + 1) + ".");
+            setText((offset.getAsInt() + getIndex() + 1) + ".");
         }
     }
 }
@@ -0,0 +1,724 @@
+package rada.jfxmines;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Computes the exact probability of every unrevealed cell being a mine,
+ * based on the visible state of a board. Flags are trusted to be correct.
+ * Cells deduced by a {@link Solver} are treated like flags and revealed cells,
+ * which keeps the frontier small when the player does not flag mines.
+ * <p>
+ * Unrevealed cells next to a number form the frontier. The frontier is split into
+ * components that share no number. The solutions of each component are counted
+ * for every possible number of mines in it, assigning its cells one by one and merging
+ * partial assignments that leave the same mines to its open numbers.
+ * The components are then combined with the cells away from the frontier,
+ * which can hold the remaining mines in any of C(cells, mines) ways.
+ * <p>
+ * Components that did not change since the previous call are taken from a cache,
+ * so a move usually only enumerates the component it touched.
+ * @author rada
+ *
+ */
+public class ProbabilityCalculator {
+    // States pack the needs of open numbers into a long, 4 bits each
+    private static final int MAX_OPEN_NUMBERS = 16;
+
+    private final Board board;
+    private final Solver solver;
+    // Own solver is rebuilt before every computation
+    private final boolean ownSolver;
+    private final int width;
+    private final int height;
+    private Map<ComponentKey, ComponentResult> cache;
+
+    public ProbabilityCalculator(Board board) {
+        this(board, new Solver(board), true);
+    }
+
+    /**
+     * @param board board to analyze
+     * @param solver solver kept up to date with the board by the caller
+     */
+    public ProbabilityCalculator(Board board, Solver solver) {
+        this(board, solver, false);
+    }
+
+    /**
+     * Returns a calculator for another board of the same size that starts with the cache of this one.
+     * Used to analyze successive snapshots of one game.
+     * @param board board to analyze
+     */
+    public ProbabilityCalculator forBoard(Board board) {
+        if (board.getWidth() != width || board.getHeight() != height) {
+            return new ProbabilityCalculator(board);
+        }
+        var calculator = new ProbabilityCalculator(board);
+        calculator.cache = cache;
+        return calculator;
+    }
+
+    private ProbabilityCalculator(Board board, Solver solver, boolean ownSolver) {
+        this.board = board;
+        this.solver = solver;
+        this.ownSolver = ownSolver;
+        this.width = board.getWidth();
+        this.height = board.getHeight();
+        cache = new HashMap<>();
+    }
+
+    /**
+     * Computes mine probabilities of all cells.
+     * Revealed and certainly safe cells have probability 0, flagged and certainly mined cells 1.
+     * @return probabilities indexed by {@code y * width + x}
+     * @throws IllegalStateException if a part of the frontier is too wide to be enumerated
+     * @throws CancellationException if the thread is interrupted during the computation
+     */
+    public double[] compute() {
+        int cells = width * height;
+        var probabilities = new double[cells];
+        if (ownSolver) {
+            solver.rebuild();
+            checkInterrupted();
+        }
+        var components = findComponents();
+        checkInterrupted();
+
+        int interior = 0;
+        int knownMines = 0;
+        for (int i = 0; i < cells; i++) {
+            int x = i % width;
+            int y = i / width;
+            if (isKnownMine(x, y)) {
+                probabilities[i] = 1;
+                knownMines++;
+            } else if (isUnknown(x, y) && !components.frontier[i]) {
+                interior++;
+            }
+        }
+        int remainingMines = board.getNumMines() - knownMines;
+
+        // Enumerate components, unchanged ones come from the cache
+        var newCache = new HashMap<ComponentKey, ComponentResult>();
+        var results = new ArrayList<ComponentResult>();
+        for (var component : components.list) {
+            var key = component.key();
+            var result = cache.get(key);
+            if (result == null) {
+                checkInterrupted();
+                result = component.enumerate();
+            }
+            newCache.put(key, result);
+            results.add(result);
+        }
+        cache = newCache;
+
+        // Distributions of frontier mines of the components before and after each component
+        int count = results.size();
+        var prefix = new double[count + 1][];
+        var suffix = new double[count + 1][];
+        prefix[0] = new double[] {1};
+        suffix[count] = new double[] {1};
+        for (int i = 0; i < count; i++) {
+            prefix[i + 1] = convolve(prefix[i], results.get(i).solutions);
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            suffix[i] = convolve(results.get(i).solutions, suffix[i + 1]);
+        }
+
+        var interiorWeights = interiorWeights(interior, remainingMines);
+        double total = 0;
+        double interiorMines = 0;
+        var all = prefix[count];
+        for (int t = 0; t < all.length; t++) {
+            int rest = remainingMines - t;
+            if (rest >= 0 && rest <= interior) {
+                total += all[t] * interiorWeights[rest];
+                interiorMines += all[t] * interiorWeights[rest] * rest;
+            }
+        }
+
+        if (total == 0) {
+            // The visible state is inconsistent, most likely because of a wrong flag
+            double density = (double) Math.max(remainingMines, 0) / Math.max(interior + components.frontierSize, 1);
+            for (int i = 0; i < cells; i++) {
+                if (isUnknown(i % width, i / width)) {
+                    probabilities[i] = Math.min(density, 1);
+                }
+            }
+            return probabilities;
+        }
+
+        double interiorProbability = interior > 0 ? interiorMines / interior / total : 0;
+        for (int i = 0; i < cells; i++) {
+            if (isUnknown(i % width, i / width) && !components.frontier[i]) {
+                probabilities[i] = interiorProbability;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            var component = components.list.get(i);
+            var result = results.get(i);
+            var others = convolve(prefix[i], suffix[i + 1]);
+            int n = component.cells.size();
+            for (int k = 0; k < result.solutions.length; k++) {
+                // Weight of all arrangements outside of the component given k mines in it
+                double weight = 0;
+                for (int t = 0; t < others.length; t++) {
+                    int rest = remainingMines - k - t;
+                    if (rest >= 0 && rest <= interior) {
+                        weight += others[t] * interiorWeights[rest];
+                    }
+                }
+                if (weight == 0) {
+                    continue;
+                }
+                for (int c = 0; c < n; c++) {
+                    probabilities[component.cells.get(c)] += result.cellMines[k * n + c] * weight / total;
+                }
+            }
+        }
+        return probabilities;
+    }
+
+    /**
+     * Returns C(interior, r) for every r, scaled so that the largest value is 1.
+     */
+    private static double[] interiorWeights(int interior, int remainingMines) {
+        var logFactorial = new double[interior + 1];
+        for (int i = 1; i <= interior; i++) {
+            logFactorial[i] = logFactorial[i - 1] + Math.log(i);
+        }
+        var weights = new double[interior + 1];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int r = 0; r <= interior; r++) {
+            weights[r] = logFactorial[interior] - logFactorial[r] - logFactorial[interior - r];
+            if (r <= remainingMines) {
+                max = Math.max(max, weights[r]);
+            }
+        }
+        if (max == Double.NEGATIVE_INFINITY) {
+            // More flags than mines, no arrangement is possible
+            return new double[interior + 1];
+        }
+        for (int r = 0; r <= interior; r++) {
+            weights[r] = Math.exp(weights[r] - max);
+        }
+        return weights;
+    }
+
+    private static double[] convolve(double[] a, double[] b) {
+        var result = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == 0) {
+                continue;
+            }
+            for (int j = 0; j < b.length; j++) {
+                result[i + j] += a[i] * b[j];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits the frontier into components of cells that are connected through numbers.
+     */
+    private Components findComponents() {
+        int cells = width * height;
+        var parent = new int[cells];
+        Arrays.fill(parent, -1);
+        var frontier = new boolean[cells];
+        var numbers = new IntList();
+
+        for (int i = 0; i < cells; i++) {
+            int x = i % width;
+            int y = i / width;
+            if (!board.isRevealed(x, y) || board.isMine(x, y)) {
+                continue;
+            }
+            int first = -1;
+            for (int tmpY = Math.max(y - 1, 0); tmpY <= Math.min(y + 1, height - 1); tmpY++) {
+                for (int tmpX = Math.max(x - 1, 0); tmpX <= Math.min(x + 1, width - 1); tmpX++) {
+                    int n = tmpY * width + tmpX;
+                    if (isUnknown(tmpX, tmpY)) {
+                        if (!frontier[n]) {
+                            frontier[n] = true;
+                            parent[n] = n;
+                        }
+                        if (first < 0) {
+                            first = n;
+                        } else {
+                            union(parent, first, n);
+                        }
+                    }
+                }
+            }
+            if (first >= 0) {
+                numbers.add(i);
+            }
+        }
+
+        // Group cells by their root, cells of a component end up in ascending order
+        var byRoot = new HashMap<Integer, Component>();
+        var list = new ArrayList<Component>();
+        int frontierSize = 0;
+        for (int i = 0; i < cells; i++) {
+            if (frontier[i]) {
+                frontierSize++;
+                int root = find(parent, i);
+                var component = byRoot.get(root);
+                if (component == null) {
+                    component = new Component();
+                    byRoot.put(root, component);
+                    list.add(component);
+                }
+                component.cells.add(i);
+            }
+        }
+
+        for (int j = 0; j < numbers.size(); j++) {
+            int number = numbers.get(j);
+            int x = number % width;
+            int y = number / width;
+            int missing = board.getAdjacent(x, y);
+            Component component = null;
+            for (int tmpY = Math.max(y - 1, 0); tmpY <= Math.min(y + 1, height - 1); tmpY++) {
+                for (int tmpX = Math.max(x - 1, 0); tmpX <= Math.min(x + 1, width - 1); tmpX++) {
+                    if (isKnownMine(tmpX, tmpY)) {
+                        missing--;
+                    } else if (component == null && isUnknown(tmpX, tmpY)) {
+                        component = byRoot.get(find(parent, tmpY * width + tmpX));
+                    }
+                }
+            }
+            component.addConstraint(number, missing);
+        }
+
+        return new Components(list, frontier, frontierSize);
+    }
+
+    /**
+     * Lets a computation that is no longer needed be abandoned.
+     */
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Probability computation interrupted");
+        }
+    }
+
+    private boolean isUnknown(int x, int y) {
+        return !board.isRevealed(x, y) && !isKnownMine(x, y) && !solver.isSafe(x, y);
+    }
+
+    private boolean isKnownMine(int x, int y) {
+        return board.isFlagged(x, y) || solver.isMine(x, y);
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[rootB] = rootA;
+        }
+    }
+
+    private static class Components {
+        final List<Component> list;
+        final boolean[] frontier;
+        final int frontierSize;
+
+        Components(List<Component> list, boolean[] frontier, int frontierSize) {
+            this.list = list;
+            this.frontier = frontier;
+            this.frontierSize = frontierSize;
+        }
+    }
+
+    /**
+     * Frontier cells connected through numbers, together with the numbers.
+     */
+    private class Component {
+        final IntList cells = new IntList();
+        final IntList numbers = new IntList();
+        final IntList missing = new IntList();
+
+        void addConstraint(int number, int missingMines) {
+            numbers.add(number);
+            missing.add(missingMines);
+        }
+
+        /**
+         * The key identifies the component by its cells and the missing mines of its numbers,
+         * the neighborhoods follow from the positions.
+         */
+        ComponentKey key() {
+            var key = new int[1 + cells.size() + 2 * numbers.size()];
+            key[0] = cells.size();
+            for (int i = 0; i < cells.size(); i++) {
+                key[1 + i] = cells.get(i);
+            }
+            int offset = 1 + cells.size();
+            for (int j = 0; j < numbers.size(); j++) {
+                key[offset + 2 * j] = numbers.get(j);
+                key[offset + 2 * j + 1] = missing.get(j);
+            }
+            return new ComponentKey(key);
+        }
+
+        /**
+         * Counts solutions of the component by the number of mines they contain,
+         * and for each cell how many of those solutions have a mine there.
+         * <p>
+         * Cells are assigned one by one in breadth first order. The only thing that
+         * matters for the rest of the assignment is how many mines the numbers that are
+         * partially assigned still need, so partial assignments with the same needs are
+         * merged. A forward pass counts the ways to reach each state, a backward pass
+         * counts the ways to complete it and the two are combined for every cell.
+         * On frontiers like a chain along an opening only a few numbers are open at once,
+         * so this is far cheaper than enumerating the solutions one by one.
+         */
+        ComponentResult enumerate() {
+            int n = cells.size();
+            int m = numbers.size();
+            var local = new HashMap<Integer, Integer>();
+            for (int c = 0; c < n; c++) {
+                local.put(cells.get(c), c);
+            }
+
+            // Cells of every number and numbers of every cell, as local cell indices
+            var cellsOfNumber = new int[m][];
+            var numbersOfCell = new ArrayList<IntList>();
+            for (int c = 0; c < n; c++) {
+                numbersOfCell.add(new IntList(8));
+            }
+            var initialNeed = new int[m];
+            for (int j = 0; j < m; j++) {
+                int number = numbers.get(j);
+                int x = number % width;
+                int y = number / width;
+                initialNeed[j] = missing.get(j);
+                var list = new IntList(8);
+                for (int tmpY = Math.max(y - 1, 0); tmpY <= Math.min(y + 1, height - 1); tmpY++) {
+                    for (int tmpX = Math.max(x - 1, 0); tmpX <= Math.min(x + 1, width - 1); tmpX++) {
+                        var c = local.get(tmpY * width + tmpX);
+                        if (c != null) {
+                            list.add(c);
+                            numbersOfCell.get(c).add(j);
+                        }
+                    }
+                }
+                cellsOfNumber[j] = list.toArray();
+            }
+
+            var solutions = new double[n + 1];
+            var cellMines = new double[(n + 1) * n];
+            for (int j = 0; j < m; j++) {
+                if (initialNeed[j] < 0 || initialNeed[j] > cellsOfNumber[j].length) {
+                    // No solution at all
+                    return new ComponentResult(solutions, cellMines);
+                }
+            }
+
+            // Greedy order that closes numbers as soon as possible and opens as few as possible,
+            // which keeps the set of open numbers small
+            var order = new int[n];
+            var position = new int[n];
+            Arrays.fill(position, -1);
+            var unassigned = new int[m];
+            for (int j = 0; j < m; j++) {
+                unassigned[j] = cellsOfNumber[j].length;
+            }
+            for (int p = 0; p < n; p++) {
+                int best = -1;
+                int bestScore = Integer.MIN_VALUE;
+                for (int c = 0; c < n; c++) {
+                    if (position[c] >= 0) {
+                        continue;
+                    }
+                    int score = 0;
+                    var ofCell = numbersOfCell.get(c);
+                    for (int i = 0; i < ofCell.size(); i++) {
+                        int j = ofCell.get(i);
+                        boolean started = unassigned[j] < cellsOfNumber[j].length;
+                        if (unassigned[j] == 1) {
+                            // Closes the number
+                            score += 16;
+                        } else if (started) {
+                            score += 4;
+                        } else {
+                            // Opens a new number
+                            score -= 1;
+                        }
+                    }
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = c;
+                    }
+                }
+                position[best] = p;
+                order[p] = best;
+                var ofBest = numbersOfCell.get(best);
+                for (int i = 0; i < ofBest.size(); i++) {
+                    unassigned[ofBest.get(i)]--;
+                }
+            }
+
+            // Positions of the first and last cell of every number
+            var first = new int[m];
+            var last = new int[m];
+            Arrays.fill(first, n);
+            Arrays.fill(last, -1);
+            for (int j = 0; j < m; j++) {
+                for (int c : cellsOfNumber[j]) {
+                    first[j] = Math.min(first[j], position[c]);
+                    last[j] = Math.max(last[j], position[c]);
+                }
+            }
+
+            // Numbers that are open between position p - 1 and p
+            var open = new int[n + 1][];
+            int maxOpen = 0;
+            for (int p = 0; p <= n; p++) {
+                var list = new IntList();
+                for (int j = 0; j < m; j++) {
+                    if (first[j] < p && p <= last[j]) {
+                        list.add(j);
+                    }
+                }
+                open[p] = list.toArray();
+                maxOpen = Math.max(maxOpen, open[p].length);
+            }
+            if (maxOpen > MAX_OPEN_NUMBERS) {
+                throw new IllegalStateException("Frontier component too wide to enumerate: " + maxOpen + " open numbers");
+            }
+
+            // Cells of every number after each position, used for pruning
+            var remaining = new int[n][];
+            for (int p = 0; p < n; p++) {
+                var ofCell = numbersOfCell.get(order[p]);
+                remaining[p] = new int[ofCell.size()];
+                for (int i = 0; i < ofCell.size(); i++) {
+                    int j = ofCell.get(i);
+                    for (int c : cellsOfNumber[j]) {
+                        if (position[c] > p) {
+                            remaining[p][i]++;
+                        }
+                    }
+                }
+            }
+
+            var transitions = new Transitions(n, m, order, numbersOfCell, open, initialNeed, remaining);
+
+            // Forward pass, ways to reach a state by the number of mines so far
+            var forward = new ArrayList<Map<Long, double[]>>(n + 1);
+            var start = new HashMap<Long, double[]>();
+            start.put(0L, new double[] {1});
+            forward.add(start);
+            for (int p = 0; p < n; p++) {
+                checkInterrupted();
+                var next = new HashMap<Long, double[]>();
+                for (var entry : forward.get(p).entrySet()) {
+                    for (int value = 0; value <= 1; value++) {
+                        long state = transitions.apply(p, entry.getKey(), value);
+                        if (state >= 0) {
+                            addShifted(next, state, entry.getValue(), value);
+                        }
+                    }
+                }
+                forward.add(next);
+            }
+
+            // Backward pass, ways to complete a state by the number of mines still to place
+            var backward = new ArrayList<Map<Long, double[]>>(n + 1);
+            for (int p = 0; p <= n; p++) {
+                backward.add(null);
+            }
+            var end = new HashMap<Long, double[]>();
+            end.put(0L, new double[] {1});
+            backward.set(n, end);
+            for (int p = n - 1; p >= 0; p--) {
+                var current = new HashMap<Long, double[]>();
+                var next = backward.get(p + 1);
+                for (var state : forward.get(p).keySet()) {
+                    for (int value = 0; value <= 1; value++) {
+                        long nextState = transitions.apply(p, state, value);
+                        if (nextState >= 0 && next.containsKey(nextState)) {
+                            addShifted(current, state, next.get(nextState), value);
+                        }
+                    }
+                }
+                backward.set(p, current);
+            }
+
+            var complete = forward.get(n).get(0L);
+            if (complete != null) {
+                System.arraycopy(complete, 0, solutions, 0, complete.length);
+            }
+
+            // Solutions with a mine on the cell at position p, by total number of mines
+            for (int p = 0; p < n; p++) {
+                int c = order[p];
+                var next = backward.get(p + 1);
+                for (var entry : forward.get(p).entrySet()) {
+                    long nextState = transitions.apply(p, entry.getKey(), 1);
+                    if (nextState < 0 || !next.containsKey(nextState)) {
+                        continue;
+                    }
+                    var before = entry.getValue();
+                    var after = next.get(nextState);
+                    for (int k1 = 0; k1 < before.length; k1++) {
+                        if (before[k1] == 0) {
+                            continue;
+                        }
+                        for (int k2 = 0; k2 < after.length; k2++) {
+                            cellMines[(k1 + 1 + k2) * n + c] += before[k1] * after[k2];
+                        }
+                    }
+                }
+            }
+
+            // Scale to avoid overflow when combining components, the factor cancels out
+            double max = 0;
+            for (double s : solutions) {
+                max = Math.max(max, s);
+            }
+            if (max > 0) {
+                for (int k = 0; k < solutions.length; k++) {
+                    solutions[k] /= max;
+                }
+                for (int i = 0; i < cellMines.length; i++) {
+                    cellMines[i] /= max;
+                }
+            }
+            return new ComponentResult(solutions, cellMines);
+        }
+    }
+
+    /**
+     * Adds counts to a state, shifted by the given number of mines.
+     */
+    private static void addShifted(Map<Long, double[]> map, long state, double[] counts, int shift) {
+        var existing = map.get(state);
+        int length = counts.length + shift;
+        if (existing == null || existing.length < length) {
+            var grown = new double[length];
+            if (existing != null) {
+                System.arraycopy(existing, 0, grown, 0, existing.length);
+            }
+            existing = grown;
+            map.put(state, existing);
+        }
+        for (int k = 0; k < counts.length; k++) {
+            existing[k + shift] += counts[k];
+        }
+    }
+
+    /**
+     * Moves from the state before a cell to the state after it.
+     * A state packs the mines still needed by each open number into 4 bits.
+     */
+    private static class Transitions {
+        private final int[] order;
+        private final List<IntList> numbersOfCell;
+        private final int[][] open;
+        private final int[] initialNeed;
+        private final int[][] remaining;
+        private final int[] need;
+
+        Transitions(int n, int m, int[] order, List<IntList> numbersOfCell, int[][] open,
+                int[] initialNeed, int[][] remaining) {
+            this.order = order;
+            this.numbersOfCell = numbersOfCell;
+            this.open = open;
+            this.initialNeed = initialNeed;
+            this.remaining = remaining;
+            this.need = new int[m];
+        }
+
+        /**
+         * @param p position of the cell
+         * @param state state before the cell
+         * @param value 1 if the cell is a mine, 0 otherwise
+         * @return state after the cell, or -1 if a number cannot be satisfied anymore
+         */
+        long apply(int p, long state, int value) {
+            var before = open[p];
+            for (int i = 0; i < before.length; i++) {
+                need[before[i]] = (int) (state >>> (4 * i)) & 0xF;
+            }
+            var ofCell = numbersOfCell.get(order[p]);
+            for (int i = 0; i < ofCell.size(); i++) {
+                int j = ofCell.get(i);
+                if (!isOpen(before, j)) {
+                    // The number starts at this cell
+                    need[j] = initialNeed[j];
+                }
+                need[j] -= value;
+                // Neither more mines than shown nor more than the remaining cells can hold
+                if (need[j] < 0 || need[j] > remaining[p][i]) {
+                    return -1;
+                }
+            }
+            var after = open[p + 1];
+            long next = 0;
+            for (int i = 0; i < after.length; i++) {
+                next |= (long) need[after[i]] << (4 * i);
+            }
+            return next;
+        }
+
+        private boolean isOpen(int[] openNumbers, int j) {
+            for (int number : openNumbers) {
+                if (number == j) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class ComponentResult {
+        // Scaled number of solutions with k mines
+        final double[] solutions;
+        // Scaled number of solutions with k mines and a mine on cell c, at k * cells + c
+        final double[] cellMines;
+
+        ComponentResult(double[] solutions, double[] cellMines) {
+            this.solutions = solutions;
+            this.cellMines = cellMines;
+        }
+    }
+
+    private static class ComponentKey {
+        private final int[] key;
+        private final int hash;
+
+        ComponentKey(int[] key) {
+            this.key = key;
+            this.hash = Arrays.hashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ComponentKey && Arrays.equals(key, ((ComponentKey) obj).key);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package rada.jfxmines;
+
+/**
+ * Recorded game: the board and every move with the time it was made.
+ * <p>
+ * Replays are written by {@link ReplayRecorder} and read by {@link ReplayReader}.
+ * A replay file starts with the magic bytes {@code JFMR} and a version byte,
+ * the games follow one after another. Numbers are unsigned LEB128 varints unless noted:
+ * <pre>
+ * game:   0x01, width, height, mines, seed (8 bytes, big endian), first click cell,
+ *         flags (1 byte, bit 0 no-guess), start time in epoch milliseconds, action*
+ * action: milliseconds since the previous action, zigzag(cell - previous cell) &lt;&lt; 2 | type
+ * end:    an action of type {@link #END} with cell delta 0, followed by the result byte
+ * </pre>
+ * Cells are indices {@code y * width + x}, the first click is the previous cell of the first action.
+ * Moves are usually close to each other and a few hundred milliseconds apart,
+ * so an action takes three or four bytes.
+ * @author rada
+ *
+ */
+public class Replay {
+    static final byte[] MAGIC = {'J', 'F', 'M', 'R'};
+    static final int VERSION = 1;
+    static final int GAME_TAG = 0x01;
+    static final int NO_GUESS_FLAG = 0x01;
+
+    public static final byte REVEAL = 0;
+    public static final byte FLAG = 1;
+    public static final byte CHORD = 2;
+    // Marks the end of a game, never part of the actions
+    static final byte END = 3;
+    static final int TYPE_BITS = 2;
+
+    public enum Result {
+        WON, LOST,
+        // A new game was started or the application closed during the game
+        ABANDONED,
+        // The file ends before the end of the game, or the recorder ended it so after a crash
+        INCOMPLETE
+    }
+
+    public final Difficulty difficulty;
+    public final long seed;
+    public final int firstClickX;
+    public final int firstClickY;
+    public final boolean noGuess;
+    // Wall clock time of the first click in epoch milliseconds
+    public final long startTime;
+    // Action i is types[i] on cells[i] at times[i] milliseconds after the first click
+    public final byte[] types;
+    public final int[] cells;
+    public final long[] times;
+    public final Result result;
+    // Milliseconds from the first click to the end of the game, or to the last action if the game did not end
+    public final long duration;
+
+    public Replay(Difficulty difficulty, long seed, int firstClickX, int firstClickY, boolean noGuess, long startTime,
+            byte[] types, int[] cells, long[] times, Result result, long duration) {
+        this.difficulty = difficulty;
+        this.seed = seed;
+        this.firstClickX = firstClickX;
+        this.firstClickY = firstClickY;
+        this.noGuess = noGuess;
+        this.startTime = startTime;
+        this.types = types;
+        this.cells = cells;
+        this.times = times;
+        this.result = result;
+        this.duration = duration;
+    }
+
+    public int getNumActions() {
+        return types.length;
+    }
+}
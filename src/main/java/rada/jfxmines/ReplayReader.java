@@ -0,0 +1,230 @@
+package rada.jfxmines;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads the games of a replay file one after another, see {@link Replay} for the format.
+ * <p>
+ * The file is read in blocks, a game is decoded from the buffer without copying.
+ * A game cut off by the end of the file is returned with the result {@link Replay.Result#INCOMPLETE},
+ * which happens when the application did not close properly.
+ * {@link #getValidLength()} tells where such a file can be cut, so that games appended to it can be read.
+ * @author rada
+ *
+ */
+public class ReplayReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private boolean eof;
+    // Bytes read from the file into the buffer
+    private long read;
+    // End of the last complete game, or of the last complete action of a game cut off by the end of the file
+    private long validLength;
+    private boolean cutOff;
+
+    /**
+     * Opens a replay file and checks its header.
+     * @throws IOException if the file cannot be read or is not a replay file
+     */
+    public ReplayReader(Path path) throws IOException {
+        channel = FileChannel.open(path);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+        try {
+            if (!ensure(Replay.MAGIC.length + 1)) {
+                throw new IOException("Not a replay file: " + path);
+            }
+            var magic = new byte[Replay.MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, Replay.MAGIC)) {
+                throw new IOException("Not a replay file: " + path);
+            }
+            int version = buffer.get();
+            if (version != Replay.VERSION) {
+                throw new IOException("Unsupported replay version " + version);
+            }
+            validLength = position();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next game.
+     * @return the game, {@code null} at the end of the file
+     * @throws IOException if the file cannot be read or is corrupted
+     */
+    public Replay next() throws IOException {
+        if (!ensure(1)) {
+            return null;
+        }
+        int tag = buffer.get();
+        if (tag != Replay.GAME_TAG) {
+            throw new IOException("Corrupted replay file, unexpected tag " + tag);
+        }
+        try {
+            return readGame();
+        } catch (EOFException e) {
+            // The header of the game is cut off, nothing to replay
+            return null;
+        }
+    }
+
+    private Replay readGame() throws IOException {
+        int width = readInt();
+        int height = readInt();
+        int mines = readInt();
+        // Larger boards cannot be played, they would only exhaust the memory of the verifier
+        if (width > CustomDifficultyDialog.MAX_SIZE || height > CustomDifficultyDialog.MAX_SIZE
+                || mines > CustomDifficultyDialog.MAX_MINES) {
+            throw new IOException("Corrupted replay file, board too large " + width + "x" + height + "x" + mines);
+        }
+        Difficulty difficulty;
+        try {
+            difficulty = Difficulty.getCustom(width, height, mines);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted replay file, invalid board " + width + "x" + height + "x" + mines);
+        }
+        if (!ensure(Long.BYTES)) {
+            throw new EOFException();
+        }
+        long seed = buffer.getLong();
+        int cell = readInt();
+        if (cell >= (long) width * height) {
+            throw new IOException("Corrupted replay file, first click outside the board " + cell);
+        }
+        int firstClickX = cell % width;
+        int firstClickY = cell / width;
+        if (!ensure(1)) {
+            throw new EOFException();
+        }
+        boolean noGuess = (buffer.get() & Replay.NO_GUESS_FLAG) != 0;
+        long startTime = readVarLong();
+
+        var types = new byte[64];
+        var cells = new int[64];
+        var times = new long[64];
+        int count = 0;
+        long time = 0;
+        var result = Replay.Result.INCOMPLETE;
+        long lastAction = position();
+        try {
+            while (true) {
+                time += readVarLong();
+                long action = readVarLong();
+                byte type = (byte) (action & ((1 << Replay.TYPE_BITS) - 1));
+                int zigzag = (int) (action >>> Replay.TYPE_BITS);
+                cell += (zigzag >>> 1) ^ -(zigzag & 1);
+                if (type == Replay.END) {
+                    if (!ensure(1)) {
+                        throw new EOFException();
+                    }
+                    int ordinal = buffer.get();
+                    if (ordinal < 0 || ordinal >= Replay.Result.values().length) {
+                        throw new IOException("Corrupted replay file, unknown result " + ordinal);
+                    }
+                    result = Replay.Result.values()[ordinal];
+                    validLength = position();
+                    cutOff = false;
+                    break;
+                }
+                if (count == types.length) {
+                    types = Arrays.copyOf(types, count * 2);
+                    cells = Arrays.copyOf(cells, count * 2);
+                    times = Arrays.copyOf(times, count * 2);
+                }
+                types[count] = type;
+                cells[count] = cell;
+                times[count] = time;
+                count++;
+                lastAction = position();
+            }
+        } catch (EOFException e) {
+            // Keep the actions read so far
+            validLength = lastAction;
+            cutOff = true;
+        }
+        return new Replay(difficulty, seed, firstClickX, firstClickY, noGuess, startTime,
+                Arrays.copyOf(types, count), Arrays.copyOf(cells, count), Arrays.copyOf(times, count), result, time);
+    }
+
+    /**
+     * Returns the length of the part of the file read so far that is well-formed:
+     * the end of the last complete game, or of the last complete action of a game cut off by the end of the file.
+     * A game whose start is cut off or that is corrupted is not part of it.
+     */
+    public long getValidLength() {
+        return validLength;
+    }
+
+    /**
+     * Returns {@code true} if the file read so far ends inside a game whose start was read,
+     * the game ends at {@link #getValidLength()} without an end record.
+     */
+    public boolean isCutOff() {
+        return cutOff;
+    }
+
+    /**
+     * Returns the position in the file of the next byte to decode.
+     */
+    private long position() {
+        return read - buffer.remaining();
+    }
+
+    private int readInt() throws IOException {
+        long value = readVarLong();
+        // Ten byte varints set the sign bit
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Corrupted replay file, value out of range " + value);
+        }
+        return (int) value;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            if (!ensure(1)) {
+                throw new EOFException();
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted replay file, varint too long");
+    }
+
+    /**
+     * Reads from the file until the buffer holds at least {@code n} bytes.
+     * @return {@code false} if the file ends first
+     */
+    private boolean ensure(int n) throws IOException {
+        while (buffer.remaining() < n) {
+            if (eof) {
+                return false;
+            }
+            buffer.compact();
+            int bytes = channel.read(buffer);
+            eof = bytes < 0;
+            read += Math.max(0, bytes);
+            buffer.flip();
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
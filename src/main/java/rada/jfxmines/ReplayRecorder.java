@@ -0,0 +1,241 @@
+package rada.jfxmines;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every game into a replay file, see {@link Replay} for the format.
+ * <p>
+ * Moves are encoded into a small buffer on the thread that makes them, which costs
+ * a few nanoseconds and allocates nothing. The buffer is handed to a background thread
+ * when it is full and when a game ends, that thread appends it to the file.
+ * The click path never waits for the disk.
+ * <p>
+ * Games reach the file in parts, so a crash can leave the last game without its end.
+ * Before the first game of a session is appended, the file is read once on the writer thread
+ * and such a game is ended as {@link Replay.Result#INCOMPLETE} after its last complete move.
+ * Otherwise the next game would be read as moves of the unfinished one.
+ * <p>
+ * The recorder is used from one thread, like the {@link Game} that calls it.
+ * @author rada
+ *
+ */
+public class ReplayRecorder {
+    private static final int BUFFER_SIZE = 4096;
+    // Longest record: game start with all varints at their maximum length
+    private static final int MAX_RECORD_SIZE = 64;
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final Path path;
+    private final ExecutorService writer;
+    private ByteBuffer buffer;
+    // Only used on the writer thread
+    private FileChannel channel;
+    private boolean recording;
+    private int width;
+    private int previousCell;
+    private long previousTime;
+
+    /**
+     * @param filename replay file, games are appended to it
+     */
+    public ReplayRecorder(String filename) {
+        this.path = Path.of(filename);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "replay-writer");
+            // Must not keep the application running, close() writes what is left
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts recording a game whose mines were just placed.
+     * A game that did not end yet is recorded as abandoned.
+     */
+    void gameStarted(Board board, boolean noGuess) {
+        if (recording) {
+            end(Replay.Result.ABANDONED, previousTime);
+        }
+        recording = true;
+        width = board.getWidth();
+        previousCell = board.getFirstClickY() * width + board.getFirstClickX();
+        previousTime = 0;
+
+        ensureSpace();
+        buffer.put((byte) Replay.GAME_TAG);
+        putVarLong(board.getWidth());
+        putVarLong(board.getHeight());
+        putVarLong(board.getNumMines());
+        buffer.putLong(board.getSeed());
+        putVarLong(previousCell);
+        buffer.put((byte) (noGuess ? Replay.NO_GUESS_FLAG : 0));
+        putVarLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Records a move.
+     * @param type {@link Replay#REVEAL}, {@link Replay#FLAG} or {@link Replay#CHORD}
+     * @param elapsedMillis time since the first click
+     */
+    void action(byte type, int x, int y, long elapsedMillis) {
+        if (!recording) {
+            return;
+        }
+        int cell = y * width + x;
+        ensureSpace();
+        putAction(type, cell - previousCell, elapsedMillis);
+        previousCell = cell;
+    }
+
+    /**
+     * Records the end of the game and hands it to the writer thread.
+     */
+    void gameEnded(boolean win, long elapsedMillis) {
+        if (recording) {
+            end(win ? Replay.Result.WON : Replay.Result.LOST, elapsedMillis);
+        }
+    }
+
+    /**
+     * Records a running game as abandoned and waits until everything is written.
+     */
+    public void close() {
+        if (recording) {
+            end(Replay.Result.ABANDONED, previousTime);
+        }
+        writer.execute(this::closeChannel);
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Replays were not written in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void end(Replay.Result result, long elapsedMillis) {
+        ensureSpace();
+        putAction(Replay.END, 0, elapsedMillis);
+        buffer.put((byte) result.ordinal());
+        recording = false;
+        flush();
+    }
+
+    private void putAction(byte type, int cellDelta, long elapsedMillis) {
+        // Actions are recorded in order, the clock is monotonic
+        putVarLong(Math.max(0, elapsedMillis - previousTime));
+        previousTime = Math.max(previousTime, elapsedMillis);
+        long zigzag = (cellDelta << 1) ^ (cellDelta >> 31);
+        putVarLong((zigzag & 0xFFFFFFFFL) << Replay.TYPE_BITS | type);
+    }
+
+    private void putVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void ensureSpace() {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands the buffer to the writer thread and continues with a new one.
+     */
+    private void flush() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        var full = buffer.flip();
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        writer.execute(() -> write(full));
+    }
+
+    private void write(ByteBuffer data) {
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                if (channel.size() > 0) {
+                    repair();
+                }
+                if (channel.size() == 0) {
+                    var header = ByteBuffer.allocate(Replay.MAGIC.length + 1);
+                    header.put(Replay.MAGIC).put((byte) Replay.VERSION).flip();
+                    writeFully(header);
+                }
+            }
+            writeFully(data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeChannel();
+        }
+    }
+
+    /**
+     * Cuts the file after the last complete game. A game cut off by a crash is kept up to its last
+     * complete move and ended as incomplete, a game whose start is cut off or that is damaged is dropped.
+     * @throws IOException if the file is not a replay file, it is left as it is
+     */
+    private void repair() throws IOException {
+        long validLength;
+        boolean cutOff;
+        try (var reader = new ReplayReader(path)) {
+            try {
+                while (reader.next() != null) {
+                    // Only the end of the valid part is needed
+                }
+            } catch (IOException e) {
+                System.err.println("Dropping damaged replay data: " + e.getMessage());
+            }
+            validLength = reader.getValidLength();
+            cutOff = reader.isCutOff();
+        } catch (IOException e) {
+            if (channel.size() > Replay.MAGIC.length) {
+                throw e;
+            }
+            // The header itself was cut off
+            validLength = 0;
+            cutOff = false;
+        }
+        if (validLength < channel.size()) {
+            System.err.println("Cutting replay file at byte " + validLength + " of " + channel.size());
+            channel.truncate(validLength);
+        }
+        if (cutOff) {
+            // End action without delay or move, then the result
+            var end = ByteBuffer.wrap(new byte[] {0, Replay.END, (byte) Replay.Result.INCOMPLETE.ordinal()});
+            writeFully(end);
+        }
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,276 @@
+package rada.jfxmines;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch tool that checks recorded games, so that submitted highscores can be trusted.
+ * <p>
+ * Every game is played again on a {@link Board} from its seed and first click with the moves
+ * of the replay, the way {@link Game} plays them. A game passes if the board is won by the last move
+ * and not earlier, and if the recorded time of the game agrees with the times of the moves.
+ * Games that were not won are counted but not reported, they claim no score.
+ * <p>
+ * Files are split into tasks on a work-stealing pool, the games of a large file
+ * are verified in batches while the rest of the file is read.
+ * <p>
+ * Usage: {@code ReplayVerifier <replay file or directory>...}
+ * @author rada
+ *
+ */
+public class ReplayVerifier {
+    // Batches with fewer games are verified in one task
+    private static final int GAMES_PER_TASK = 256;
+    // The game ends right after the winning move, only the time to reveal the cells may pass in between
+    static final long MAX_END_DELAY_MILLIS = 1000;
+
+    public enum Verdict {
+        VALID("valid"),
+        NOT_WON("not won"),
+        BAD_FIRST_MOVE("first move is not the first click"),
+        NOT_WON_ON_BOARD("board is not won by the moves"),
+        MOVES_AFTER_END("moves after the game ended"),
+        TIME_MISMATCH("time does not match the moves"),
+        // Playing the replay threw an exception, the replay is broken in a way the checks above miss
+        FAILED("replay cannot be played");
+
+        private final String description;
+
+        Verdict(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayVerifier <replay file or directory>...");
+            System.exit(1);
+        }
+        var files = new ArrayList<Path>();
+        for (var arg : args) {
+            try (Stream<Path> paths = Files.walk(Path.of(arg))) {
+                paths.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+        }
+
+        // One worker per core
+        var pool = new ForkJoinPool();
+        long start = System.nanoTime();
+        var stats = pool.invoke(new FilesTask(files, 0, files.size()));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        stats.rejected.forEach(System.out::println);
+        if (!stats.rejected.isEmpty()) {
+            System.out.println();
+        }
+        System.out.printf("Files:          %d on %d threads, %d unreadable%n", files.size(), pool.getParallelism(), stats.unreadable);
+        System.out.printf("Games:          %d%n", stats.games);
+        for (var verdict : Verdict.values()) {
+            System.out.printf("  %-40s %d%n", verdict + ":", stats.verdicts.getOrDefault(verdict, 0L));
+        }
+        System.out.printf("Moves / game:   %.1f%n", stats.games == 0 ? 0.0 : (double) stats.moves / stats.games);
+        System.out.printf("Throughput:     %.0f games/s, %.0f moves/s, %.1f MB/s (%.2f s)%n",
+                stats.games / seconds, stats.moves / seconds, stats.bytes / seconds / 1e6, seconds);
+        if (!stats.rejected.isEmpty() || stats.unreadable > 0) {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Plays a recorded game again and checks it.
+     * @return {@link Verdict#VALID} if the replay proves a won game of the recorded duration
+     */
+    static Verdict verify(Replay replay) {
+        if (replay.result != Replay.Result.WON) {
+            return Verdict.NOT_WON;
+        }
+        var board = new Board(replay.difficulty);
+        int width = board.getWidth();
+        int firstClick = replay.firstClickY * width + replay.firstClickX;
+        // The game reveals the first click right after placing the mines
+        if (replay.firstClickX < 0 || replay.firstClickX >= width || replay.firstClickY < 0
+                || replay.firstClickY >= board.getHeight() || replay.getNumActions() == 0
+                || replay.types[0] != Replay.REVEAL || replay.cells[0] != firstClick) {
+            return Verdict.BAD_FIRST_MOVE;
+        }
+        board.start(replay.firstClickX, replay.firstClickY, replay.seed);
+
+        int count = replay.getNumActions();
+        for (int i = 0; i < count; i++) {
+            if (board.getState() != Board.State.IN_PROGRESS) {
+                return Verdict.MOVES_AFTER_END;
+            }
+            int cell = replay.cells[i];
+            if (cell < 0 || cell >= width * board.getHeight()) {
+                return Verdict.NOT_WON_ON_BOARD;
+            }
+            int x = cell % width;
+            int y = cell / width;
+            switch (replay.types[i]) {
+                case Replay.REVEAL:
+                    board.reveal(x, y);
+                    break;
+                case Replay.CHORD:
+                    board.chord(x, y);
+                    break;
+                default:
+                    board.toggleFlag(x, y);
+                    break;
+            }
+        }
+        if (board.getState() != Board.State.WON) {
+            return Verdict.NOT_WON_ON_BOARD;
+        }
+        // Times of the moves never decrease, the last one is the winning move
+        long lastMove = replay.times[count - 1];
+        if (replay.duration < lastMove || replay.duration - lastMove > MAX_END_DELAY_MILLIS) {
+            return Verdict.TIME_MISMATCH;
+        }
+        return Verdict.VALID;
+    }
+
+    static class Stats {
+        long games;
+        long moves;
+        long bytes;
+        long unreadable;
+        final Map<Verdict, Long> verdicts = new EnumMap<>(Verdict.class);
+        // Won games that failed, one line each
+        final List<String> rejected = new ArrayList<>();
+
+        Stats add(Stats other) {
+            games += other.games;
+            moves += other.moves;
+            bytes += other.bytes;
+            unreadable += other.unreadable;
+            other.verdicts.forEach((verdict, n) -> verdicts.merge(verdict, n, Long::sum));
+            rejected.addAll(other.rejected);
+            return this;
+        }
+    }
+
+    /**
+     * Verifies a range of files, splitting it until a single file is left.
+     */
+    private static class FilesTask extends RecursiveTask<Stats> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+
+        FilesTask(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Stats compute() {
+            if (to - from < 1) {
+                return new Stats();
+            }
+            if (to - from == 1) {
+                return verifyFile(files.get(from));
+            }
+            int middle = (from + to) >>> 1;
+            var left = new FilesTask(files, from, middle);
+            left.fork();
+            var right = new FilesTask(files, middle, to).compute();
+            // Keeps the rejected games in the order of the files
+            return left.join().add(right);
+        }
+
+        /**
+         * Reads the file and forks a task for every batch of games.
+         */
+        private static Stats verifyFile(Path file) {
+            var stats = new Stats();
+            var batches = new ArrayList<BatchTask>();
+            try (var reader = new ReplayReader(file)) {
+                stats.bytes = Files.size(file);
+                var batch = new ArrayList<Replay>(GAMES_PER_TASK);
+                int index = 0;
+                Replay replay;
+                while ((replay = reader.next()) != null) {
+                    batch.add(replay);
+                    if (batch.size() == GAMES_PER_TASK) {
+                        batches.add(new BatchTask(file, index, batch));
+                        batches.get(batches.size() - 1).fork();
+                        index += batch.size();
+                        batch = new ArrayList<>(GAMES_PER_TASK);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    batches.add(new BatchTask(file, index, batch));
+                    batches.get(batches.size() - 1).fork();
+                }
+            } catch (IOException e) {
+                System.err.println(file + ": " + e.getMessage());
+                stats.unreadable++;
+            }
+            // Games read before an error are verified as well
+            for (var task : batches) {
+                stats.add(task.join());
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Verifies consecutive games of a file.
+     * A game that throws is rejected, the other games of the batch are still verified.
+     */
+    static class BatchTask extends RecursiveTask<Stats> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path file;
+        // Index of the first game in the file
+        private final int index;
+        private final List<Replay> replays;
+
+        BatchTask(Path file, int index, List<Replay> replays) {
+            this.file = file;
+            this.index = index;
+            this.replays = replays;
+        }
+
+        @Override
+        protected Stats compute() {
+            var stats = new Stats();
+            for (int i = 0; i < replays.size(); i++) {
+                var replay = replays.get(i);
+                Verdict verdict;
+                String reason;
+                try {
+                    verdict = verify(replay);
+                    reason = verdict.toString();
+                } catch (RuntimeException e) {
+                    verdict = Verdict.FAILED;
+                    reason = verdict + ", " + e;
+                }
+                stats.games++;
+                stats.moves += replay.getNumActions();
+                stats.verdicts.merge(verdict, 1L, Long::sum);
+                if (verdict != Verdict.VALID && verdict != Verdict.NOT_WON) {
+                    stats.rejected.add(file + " game " + (index + i) + ": " + reason);
+                }
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package rada.jfxmines;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Headless batch runner that plays many games with an automatic player
+ * and reports win rate, guesses and clicks per game.
+ * <p>
+ * Games are split into tasks on a work-stealing pool. Every task gets its own
+ * random stream split from the master seed, so the results do not depend
+ * on the number of threads.
+ * <p>
+ * Usage: {@code Simulator <easy|medium|hard|WIDTHxHEIGHTxMINES> <games> [seed]}
+ * @author rada
+ *
+ */
+public class Simulator {
+    // Tasks with fewer games are not split further
+    private static final int GAMES_PER_TASK = 256;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: Simulator <easy|medium|hard|WIDTHxHEIGHTxMINES> <games> [seed]");
+            System.exit(1);
+        }
+        var difficulty = parseDifficulty(args[0]);
+        long games = Long.parseLong(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+
+        // One worker per core
+        var pool = new ForkJoinPool();
+        long start = System.nanoTime();
+        var stats = pool.invoke(new SimulationTask(difficulty, 0, games, new SplittableRandom(seed)));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        System.out.printf("Difficulty:     %dx%d, %d mines%n",
+                difficulty.getWidth(), difficulty.getHeight(), difficulty.getNumMines());
+        System.out.printf("Games:          %d on %d threads, seed %d%n", stats.games, pool.getParallelism(), seed);
+        System.out.printf("Win rate:       %.4f %%%n", 100.0 * stats.wins / stats.games);
+        System.out.printf("Guesses / game: %.3f%n", (double) stats.guesses / stats.games);
+        System.out.printf("Clicks / game:  %.3f%n", (double) stats.clicks / stats.games);
+        System.out.printf("Throughput:     %.0f games/s (%.2f s)%n", stats.games / seconds, seconds);
+    }
+
+    /**
+     * Parses one of the named difficulties or a custom one in the form {@code WIDTHxHEIGHTxMINES}.
+     */
+    static Difficulty parseDifficulty(String name) {
+        switch (name.toLowerCase()) {
+            case "easy":
+                return Difficulty.getEasy();
+            case "medium":
+                return Difficulty.getMedium();
+            case "hard":
+                return Difficulty.getHard();
+            default:
+                var split = name.split("x");
+                if (split.length != 3) {
+                    throw new IllegalArgumentException("Unknown difficulty: " + name);
+                }
+                return Difficulty.getCustom(Integer.parseInt(split[0]), Integer.parseInt(split[1]), Integer.parseInt(split[2]));
+        }
+    }
+
+    /**
+     * Plays a single game. The first click is in the middle of the board,
+     * then certainly safe cells are revealed and when there are none, the player guesses
+     * the cell that is least likely to be a mine.
+     * @param board fresh board
+     * @param random source of the board seed and the guesses
+     * @param stats statistics to add the result to
+     */
+    static void play(Board board, SplittableRandom random, Stats stats) {
+        int width = board.getWidth();
+        int clickedX = width / 2;
+        int clickedY = board.getHeight() / 2;
+        board.start(clickedX, clickedY, random.nextLong());
+
+        var solver = new Solver(board);
+        var calculator = new ProbabilityCalculator(board, solver);
+        solver.update(board.reveal(clickedX, clickedY));
+        stats.clicks++;
+
+        while (board.getState() == Board.State.IN_PROGRESS) {
+            int next = solver.nextSafeCell();
+            if (next < 0) {
+                next = guess(board, solver, calculator, random);
+                stats.guesses++;
+            }
+            solver.update(board.reveal(next % width, next / width));
+            stats.clicks++;
+        }
+
+        stats.games++;
+        if (board.getState() == Board.State.WON) {
+            stats.wins++;
+        }
+    }
+
+    /**
+     * Picks the cell with the lowest mine probability, ties are broken at random.
+     * Falls back to a random cell that is neither revealed nor known to be a mine
+     * if the probabilities cannot be computed.
+     */
+    private static int guess(Board board, Solver solver, ProbabilityCalculator calculator, SplittableRandom random) {
+        int width = board.getWidth();
+        var candidates = new IntList();
+        try {
+            var probabilities = calculator.compute();
+            double lowest = 2;
+            for (int i = 0; i < probabilities.length; i++) {
+                if (board.isRevealed(i % width, i / width) || solver.isMine(i % width, i / width)) {
+                    continue;
+                }
+                if (probabilities[i] < lowest - 1e-9) {
+                    lowest = probabilities[i];
+                    candidates.clear();
+                }
+                if (probabilities[i] <= lowest + 1e-9) {
+                    candidates.add(i);
+                }
+            }
+            return candidates.get(random.nextInt(candidates.size()));
+        } catch (IllegalStateException e) {
+            candidates.clear();
+        }
+        for (int y = 0; y < board.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                if (!board.isRevealed(x, y) && !solver.isMine(x, y)) {
+                    candidates.add(y * width + x);
+                }
+            }
+        }
+        return candidates.get(random.nextInt(candidates.size()));
+    }
+
+    static class Stats {
+        long games;
+        long wins;
+        long guesses;
+        long clicks;
+
+        Stats add(Stats other) {
+            games += other.games;
+            wins += other.wins;
+            guesses += other.guesses;
+            clicks += other.clicks;
+            return this;
+        }
+    }
+
+    private static class SimulationTask extends RecursiveTask<Stats> {
+        private static final long serialVersionUID = 1L;
+
+        private final Difficulty difficulty;
+        private final long from;
+        private final long to;
+        private final SplittableRandom random;
+
+        SimulationTask(Difficulty difficulty, long from, long to, SplittableRandom random) {
+            this.difficulty = difficulty;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        @Override
+        protected Stats compute() {
+            if (to - from <= GAMES_PER_TASK) {
+                var stats = new Stats();
+                for (long i = from; i < to; i++) {
+                    play(new Board(difficulty), random, stats);
+                }
+                return stats;
+            }
+            long middle = (from + to) >>> 1;
+            var left = new SimulationTask(difficulty, from, middle, random.split());
+            var right = new SimulationTask(difficulty, middle, to, random);
+            left.fork();
+            return right.compute().add(left.join());
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package rada.jfxmines;
+
+/**
+ * Deduces certainly safe and certainly mined cells from the visible state of a board,
+ * that is from revealed numbers and flags. Flags are trusted to be correct.
+ * <p>
+ * Two rules are used. The single cell rule looks at one number: if all of its mines
+ * are known, the rest of its unknown neighbors are safe, and if it has exactly as many
+ * unknown neighbors as missing mines, all of them are mines. The pairwise rule compares
+ * two overlapping numbers A and B: if the mines B still needs beyond A can only fit
+ * into the cells of B outside of A, those cells are mines and the cells of A outside
+ * of B are safe. The subset rule is a special case of it.
+ * <p>
+ * The solver is incremental. Only numbers next to a cell whose state changed
+ * are examined again, so each move costs time proportional to its effect.
+ * @author rada
+ *
+ */
+public class Solver {
+    private static final byte UNKNOWN = 0;
+    private static final byte SAFE = 1;
+    private static final byte MINE = 2;
+
+    // Masks of unknown cells are kept in a 7x7 window centered on a number,
+    // large enough to hold the neighbors of any number at most 2 cells away
+    private static final int WINDOW = 7;
+    private static final int CENTER = 3;
+
+    private final Board board;
+    private final int width;
+    private final int height;
+    private final byte[] known;
+    private final boolean[] queued;
+    private final IntList queue;
+    private final IntList safeCells;
+    private final IntList mineCells;
+    private int nextSafe;
+
+    public Solver(Board board) {
+        this.board = board;
+        this.width = board.getWidth();
+        this.height = board.getHeight();
+        int cells = width * height;
+        known = new byte[cells];
+        queued = new boolean[cells];
+        queue = new IntList();
+        safeCells = new IntList();
+        mineCells = new IntList();
+        nextSafe = 0;
+    }
+
+    /**
+     * Updates the deductions after cells have been revealed.
+     * @param revealed indices of newly revealed cells as returned by
+     * {@link Board#reveal(int, int)} or {@link Board#chord(int, int)}
+     */
+    public void update(IntList revealed) {
+        for (int j = 0; j < revealed.size(); j++) {
+            int i = revealed.get(j);
+            known[i] = SAFE;
+            enqueueAround(i);
+        }
+        propagate();
+    }
+
+    /**
+     * Updates the deductions after a cell was flagged or unflagged.
+     * Removing a flag can invalidate earlier deductions, so everything is recomputed.
+     * @param x x-coordinate of cell
+     * @param y y-coordinate of cell
+     */
+    public void flagChanged(int x, int y) {
+        int index = y * width + x;
+        if (board.isFlagged(x, y)) {
+            if (known[index] == UNKNOWN) {
+                known[index] = MINE;
+                enqueueAround(index);
+                propagate();
+            }
+        } else {
+            rebuild();
+        }
+    }
+
+    /**
+     * Discards all deductions and derives them again from the whole board.
+     */
+    public void rebuild() {
+        for (int i = 0; i < known.length; i++) {
+            int x = i % width;
+            int y = i / width;
+            known[i] = board.isRevealed(x, y) ? SAFE : board.isFlagged(x, y) ? MINE : UNKNOWN;
+        }
+        safeCells.clear();
+        mineCells.clear();
+        nextSafe = 0;
+        for (int i = 0; i < known.length; i++) {
+            if (known[i] == SAFE) {
+                enqueue(i);
+            }
+        }
+        propagate();
+    }
+
+    /**
+     * Returns a cell that is certainly safe but not revealed yet.
+     * @return index of the cell, or -1 if there is none
+     */
+    public int nextSafeCell() {
+        while (nextSafe < safeCells.size()) {
+            int i = safeCells.get(nextSafe);
+            if (!board.isRevealed(i % width, i / width)) {
+                return i;
+            }
+            nextSafe++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns {@code true} if the cell is certainly safe, revealed cells included.
+     */
+    public boolean isSafe(int x, int y) {
+        return known[y * width + x] == SAFE;
+    }
+
+    /**
+     * Returns {@code true} if the cell is certainly a mine or flagged.
+     */
+    public boolean isMine(int x, int y) {
+        return known[y * width + x] == MINE;
+    }
+
+    /**
+     * Returns indices of all cells deduced to be safe, in the order they were found.
+     * The list includes cells that have been revealed since.
+     */
+    public IntList getSafeCells() {
+        return safeCells;
+    }
+
+    /**
+     * Returns indices of all cells deduced to be mines, in the order they were found.
+     * Flagged cells are not included.
+     */
+    public IntList getMineCells() {
+        return mineCells;
+    }
+
+    private void propagate() {
+        for (int head = 0; head < queue.size(); head++) {
+            int i = queue.get(head);
+            queued[i] = false;
+            examine(i);
+        }
+        queue.clear();
+    }
+
+    /**
+     * Applies both rules to a revealed number.
+     */
+    private void examine(int index) {
+        int x = index % width;
+        int y = index / width;
+        long a = unknownMask(x, y, x, y);
+        if (a == 0) {
+            return;
+        }
+        int missingA = missingMines(x, y);
+        int unknownA = Long.bitCount(a);
+
+        // Single cell rule
+        if (missingA == 0) {
+            mark(a, x, y, SAFE);
+            return;
+        }
+        if (missingA == unknownA) {
+            mark(a, x, y, MINE);
+            return;
+        }
+
+        // Pairwise rule with every other number that shares an unknown cell
+        for (int by = Math.max(y - 2, 0); by <= Math.min(y + 2, height - 1); by++) {
+            for (int bx = Math.max(x - 2, 0); bx <= Math.min(x + 2, width - 1); bx++) {
+                if ((bx == x && by == y) || !board.isRevealed(bx, by)) {
+                    continue;
+                }
+                long b = unknownMask(bx, by, x, y);
+                if ((a & b) == 0) {
+                    continue;
+                }
+                int missingB = missingMines(bx, by);
+                int marked = 0;
+                if (missingB - missingA == Long.bitCount(b & ~a)) {
+                    marked += mark(b & ~a, x, y, MINE);
+                    marked += mark(a & ~b, x, y, SAFE);
+                } else if (missingA - missingB == Long.bitCount(a & ~b)) {
+                    marked += mark(a & ~b, x, y, MINE);
+                    marked += mark(b & ~a, x, y, SAFE);
+                }
+                if (marked > 0 && a != unknownMask(x, y, x, y)) {
+                    // Own neighborhood changed, the cell was queued again
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns unknown neighbors of a number as a mask over the window centered on another cell.
+     * @param x x-coordinate of the number
+     * @param y y-coordinate of the number
+     * @param centerX x-coordinate of the window center
+     * @param centerY y-coordinate of the window center
+     */
+    private long unknownMask(int x, int y, int centerX, int centerY) {
+        long mask = 0;
+        for (int tmpY = Math.max(y - 1, 0); tmpY <= Math.min(y + 1, height - 1); tmpY++) {
+            for (int tmpX = Math.max(x - 1, 0); tmpX <= Math.min(x + 1, width - 1); tmpX++) {
+                if (known[tmpY * width + tmpX] == UNKNOWN) {
+                    int bit = (tmpY - centerY + CENTER) * WINDOW + (tmpX - centerX + CENTER);
+                    mask |= 1L << bit;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the number of mines around a number that are not known yet.
+     */
+    private int missingMines(int x, int y) {
+        int mines = 0;
+        for (int tmpY = Math.max(y - 1, 0); tmpY <= Math.min(y + 1, height - 1); tmpY++) {
+            for (int tmpX = Math.max(x - 1, 0); tmpX <= Math.min(x + 1, width - 1); tmpX++) {
+                if (known[tmpY * width + tmpX] == MINE) {
+                    mines++;
+                }
+            }
+        }
+        return board.getAdjacent(x, y) - mines;
+    }
+
+    /**
+     * Marks all cells of a window mask as safe or mines.
+     * @return number of cells that were not known before
+     */
+    private int mark(long mask, int centerX, int centerY, byte value) {
+        int marked = 0;
+        while (mask != 0) {
+            int bit = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            int x = centerX + bit % WINDOW - CENTER;
+            int y = centerY + bit / WINDOW - CENTER;
+            int index = y * width + x;
+            if (known[index] != UNKNOWN) {
+                continue;
+            }
+            known[index] = value;
+            if (value == SAFE) {
+                safeCells.add(index);
+            } else {
+                mineCells.add(index);
+            }
+            enqueueAround(index);
+            marked++;
+        }
+        return marked;
+    }
+
+    /**
+     * Queues the revealed cells around a changed cell, including the cell itself.
+     */
+    private void enqueueAround(int index) {
+        int x = index % width;
+        int y = index / width;
+        for (int tmpY = Math.max(y - 1, 0); tmpY <= Math.min(y + 1, height - 1); tmpY++) {
+            for (int tmpX = Math.max(x - 1, 0); tmpX <= Math.min(x + 1, width - 1); tmpX++) {
+                if (board.isRevealed(tmpX, tmpY)) {
+                    enqueue(tmpY * width + tmpX);
+                }
+            }
+        }
+    }
+
+    private void enqueue(int index) {
+        if (!queued[index]) {
+            queued[index] = true;
+            queue.add(index);
+        }
+    }
+}
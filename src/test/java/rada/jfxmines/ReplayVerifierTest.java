@@ -0,0 +1,121 @@
+package rada.jfxmines;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Replays from untrusted files must end in a verdict or an {@link IOException}, never in a crash.
+ * @author rada
+ *
+ */
+class ReplayVerifierTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void rejectsBoardWhoseCellsOverflowAnInt() throws IOException {
+        assertCorrupted(game(65537, 65536, 10, 0));
+    }
+
+    @Test
+    void rejectsBoardLargerThanTheGameAllows() throws IOException {
+        assertCorrupted(game(CustomDifficultyDialog.MAX_SIZE + 1, 10, 10, 0));
+        assertCorrupted(game(1000, 1000, CustomDifficultyDialog.MAX_MINES + 1, 0));
+    }
+
+    @Test
+    void rejectsNegativeFirstClick() throws IOException {
+        // A ten byte varint sets the sign bit
+        assertCorrupted(game(9, 9, 10, -1));
+    }
+
+    @Test
+    void rejectsFirstClickOutsideTheBoard() throws IOException {
+        assertCorrupted(game(9, 9, 10, 81));
+    }
+
+    @Test
+    void readsGameWithinTheLimits() throws IOException {
+        try (var reader = new ReplayReader(write(game(9, 9, 10, 80)))) {
+            var replay = reader.next();
+            assertEquals(Difficulty.getEasy(), replay.difficulty);
+            assertEquals(8, replay.firstClickX);
+            assertEquals(8, replay.firstClickY);
+        }
+    }
+
+    @Test
+    void rejectsFirstClickOutsideTheBoardOfReplayNotFromAFile() {
+        var replay = new Replay(Difficulty.getEasy(), 1, -1, 0, false, 0,
+                new byte[] {Replay.REVEAL}, new int[] {-1}, new long[] {0}, Replay.Result.WON, 0);
+        assertEquals(ReplayVerifier.Verdict.BAD_FIRST_MOVE, ReplayVerifier.verify(replay));
+    }
+
+    @Test
+    void gameThatThrowsIsRejectedAndTheBatchGoesOn() {
+        // More types than cells, playing it runs past the end of the cells
+        var broken = new Replay(Difficulty.getEasy(), 1, 0, 0, false, 0,
+                new byte[] {Replay.REVEAL, Replay.REVEAL}, new int[] {0}, new long[] {0, 1}, Replay.Result.WON, 1);
+        var lost = new Replay(Difficulty.getEasy(), 1, 0, 0, false, 0,
+                new byte[0], new int[0], new long[0], Replay.Result.LOST, 0);
+        var stats = new ReplayVerifier.BatchTask(Path.of("replays"), 0, List.of(broken, lost)).invoke();
+
+        assertEquals(2, stats.games);
+        assertEquals(1L, stats.verdicts.get(ReplayVerifier.Verdict.FAILED));
+        assertEquals(1L, stats.verdicts.get(ReplayVerifier.Verdict.NOT_WON));
+        assertEquals(1, stats.rejected.size());
+        assertTrue(stats.rejected.get(0).startsWith("replays game 0: " + ReplayVerifier.Verdict.FAILED));
+    }
+
+    private void assertCorrupted(byte[] file) throws IOException {
+        try (var reader = new ReplayReader(write(file))) {
+            assertThrows(IOException.class, reader::next);
+        }
+    }
+
+    private Path write(byte[] file) throws IOException {
+        var path = Files.createTempFile(directory, "replay", ".bin");
+        Files.write(path, file);
+        return path;
+    }
+
+    /**
+     * Returns a replay file with one won game without moves, see {@link Replay} for the format.
+     */
+    private static byte[] game(long width, long height, long mines, long firstClick) {
+        var out = new ByteArrayOutputStream();
+        out.writeBytes(Replay.MAGIC);
+        out.write(Replay.VERSION);
+        out.write(Replay.GAME_TAG);
+        putVarLong(out, width);
+        putVarLong(out, height);
+        putVarLong(out, mines);
+        out.writeBytes(new byte[Long.BYTES]);
+        putVarLong(out, firstClick);
+        out.write(0);
+        putVarLong(out, 0);
+        // End action after 0 ms on the first click, then the result
+        putVarLong(out, 0);
+        putVarLong(out, Replay.END);
+        out.write(Replay.Result.WON.ordinal());
+        return out.toByteArray();
+    }
+
+    private static void putVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}